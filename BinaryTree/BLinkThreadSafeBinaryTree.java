@@ -0,0 +1,564 @@
+/**
+ * B-link Thread Safe Binary Tree, with the same API as the Thread Safe Binary Tree.
+ *
+ * A B-link tree, modified based on the tree of Lehman and Yao. Each node holds up to MAX_KEYS
+ * sorted ints, a few cache lines, so a lookup touches O(log_B n) arrays instead of a node per
+ * level of a binary tree. Every node also has a high key, the largest value it may hold, and a
+ * link to its right neighbour on the same level. A node that splits moves its upper half to a new
+ * right neighbour, so a search that lands on it after the split and finds the value above its high
+ * key just follows the link.
+ *
+ * The contents of a node are immutable and replaced as a whole under the lock of the node, so
+ * readers take no lock at all and always see a consistent node. A writer locks one node at a
+ * time: it goes down without locks, locks the leaf, moves right under the locks if the leaf split
+ * meanwhile, and after a split unlocks the leaf before it inserts the new separator into the level
+ * above. Removing only takes the value out of its leaf, the nodes are never merged.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+
+public class BLinkThreadSafeBinaryTree {
+
+    /**
+     * The maximum number of values in a node, two cache lines of ints.
+     */
+    static final int MAX_KEYS = 32;
+
+    /**
+     * The high key of the last node of a level.
+     */
+    static final long NO_HIGH = Long.MAX_VALUE;
+
+    /**
+     * The contents of a node, never changed once published.
+     */
+    static class Contents {
+        /**
+         * The sorted values of a leaf, or the separators of an inner node, where child i holds
+         * the values above keys[i - 1] and up to keys[i].
+         */
+        public final int[] keys;
+        /**
+         * The children of an inner node, one more than the keys, null for a leaf.
+         */
+        public final Node[] children;
+        /**
+         * The largest value the node may hold.
+         */
+        public final long high;
+        /**
+         * The right neighbour on the same level.
+         */
+        public final Node next;
+
+        public Contents(int[] keys, Node[] children, long high, Node next) {
+            this.keys = keys;
+            this.children = children;
+            this.high = high;
+            this.next = next;
+        }
+    }
+
+    /**
+     * The Node of the Binary Tree.
+     */
+    static class Node {
+        /**
+         * The level of the node, 0 for a leaf.
+         */
+        public final int level;
+        /**
+         * The contents of the node, replaced under the lock of the node.
+         */
+        public volatile Contents contents;
+        /**
+         * Whether the node was dropped by clear.
+         */
+        public volatile boolean dead;
+        /**
+         * The local lock of the node.
+         */
+        public final Lock localLock;
+
+        public Node(int level, Contents contents) {
+            this.level = level;
+            this.contents = contents;
+            this.localLock = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Instance Variable, the root of the Binary Tree.
+     */
+    private volatile Node root;
+
+    /**
+     * Instance Variable, the number of values.
+     */
+    private final LongAdder count;
+
+    /**
+     * Constructor of the B-link Thread Safe Binary Tree.
+     */
+    BLinkThreadSafeBinaryTree() {
+        this.root = emptyLeaf();
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Create an empty leaf, the root of an empty tree.
+     *
+     * @return     The leaf
+     */
+    private static Node emptyLeaf() {
+        return new Node(0, new Contents(new int[0], null, NO_HIGH, null));
+    }
+
+    /**
+     * Get the index of the first key not below the value, which is also the index of the child of
+     * an inner node that may hold the value.
+     *
+     * @param      keys   The sorted keys
+     * @param      value  The value
+     *
+     * @return     The index, the number of keys if all of them are below the value
+     */
+    private static int lowerBound(int[] keys, int value) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Go down from the root to the node on the level that may hold the value, without locking.
+     *
+     * @param      level  The level
+     * @param      value  The value
+     *
+     * @return     The node, null if the tree is not that high
+     */
+    private Node find(int level, int value) {
+        Node node = root;
+        if (node.level < level) {
+            return null;
+        }
+        while (true) {
+            Contents c = node.contents;
+            if (value > c.high) {
+                node = c.next;
+            } else if (node.level > level) {
+                node = c.children[lowerBound(c.keys, value)];
+            } else {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Lock the node, moving right while the value is above its high key. Only one node is locked
+     * at a time, which is safe since a node only ever hands values over to its right.
+     *
+     * @param      node   The node
+     * @param      value  The value
+     *
+     * @return     The locked node that may hold the value, null if it was dropped by clear
+     */
+    private static Node lockFor(Node node, int value) {
+        node.localLock.lock();
+        while (true) {
+            if (node.dead) {
+                node.localLock.unlock();
+                return null;
+            }
+            Contents c = node.contents;
+            if (value <= c.high) {
+                return node;
+            }
+            Node nextNode = c.next;
+            node.localLock.unlock();
+            nextNode.localLock.lock();
+            node = nextNode;
+        }
+    }
+
+    /**
+     * Clear the binary tree. Every node is locked once, level by level, and marked dead, so that
+     * the writes under way either finish before it or find a dead node and start again on the new
+     * root.
+     */
+    public void clear() {
+        Node first = root;
+        while (first != null) {
+            Node below = null;
+            Node node = first;
+            while (node != null) {
+                Contents c;
+                node.localLock.lock();
+                try {
+                    node.dead = true;
+                    c = node.contents;
+                } finally {
+                    node.localLock.unlock();
+                }
+                if (below == null && c.children != null) {
+                    below = c.children[0];
+                }
+                node = c.next;
+            }
+            first = below;
+        }
+
+        count.reset();
+        root = emptyLeaf();
+    }
+
+    /**
+     * Insert the value into the tree.
+     *
+     * @param      value  The value
+     *
+     * @return     True if inserted, False if the value is already in the tree.
+     */
+    public boolean insert(int value) {
+        while (true) {
+            Node node = lockFor(find(0, value), value);
+            if (node == null) {
+                continue;
+            }
+
+            Split split;
+            try {
+                Contents c = node.contents;
+                int index = lowerBound(c.keys, value);
+                if (index < c.keys.length && c.keys[index] == value) {
+                    return false;
+                }
+                int[] keys = insertAt(c.keys, index, value);
+                count.increment();
+                if (keys.length <= MAX_KEYS) {
+                    node.contents = new Contents(keys, null, c.high, c.next);
+                    return true;
+                }
+                split = split(node, keys, null, c);
+            } finally {
+                node.localLock.unlock();
+            }
+            if (split != null) {
+                insertSeparator(node.level + 1, split.separator, split.right);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A separator and the new right node to be added to the level above.
+     */
+    static class Split {
+        public final int separator;
+        public final Node right;
+
+        public Split(int separator, Node right) {
+            this.separator = separator;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Split an overfull node into itself and a new right neighbour. Called with the lock of the
+     * node. The new node is locked before it can be reached, and if the node is the root, the new
+     * root is published before the new node is unlocked, so a writer that moves right into it
+     * always finds a level above.
+     *
+     * @param      node      The node
+     * @param      keys      The keys, one more than fits
+     * @param      children  The children, null for a leaf
+     * @param      c         The old contents of the node
+     *
+     * @return     The split to add to the level above, null if the root was split
+     */
+    private Split split(Node node, int[] keys, Node[] children, Contents c) {
+        int half = keys.length / 2;
+        int separator = keys[half - 1];
+        Contents left;
+        Contents right;
+        if (children == null) {
+            right = new Contents(Arrays.copyOfRange(keys, half, keys.length), null, c.high,
+                    c.next);
+            left = new Contents(Arrays.copyOf(keys, half), null, separator, null);
+        } else {
+            // The separator moves up, so it leaves the inner node
+            right = new Contents(Arrays.copyOfRange(keys, half, keys.length),
+                    Arrays.copyOfRange(children, half, children.length), c.high, c.next);
+            left = new Contents(Arrays.copyOf(keys, half - 1), Arrays.copyOf(children, half),
+                    separator, null);
+        }
+
+        Node rightNode = new Node(node.level, right);
+        rightNode.localLock.lock();
+        try {
+            node.contents = new Contents(left.keys, left.children, left.high, rightNode);
+            if (node == root) {
+                root = new Node(node.level + 1, new Contents(new int[] {separator},
+                        new Node[] {node, rightNode}, NO_HIGH, null));
+                return null;
+            }
+            return new Split(separator, rightNode);
+        } finally {
+            rightNode.localLock.unlock();
+        }
+    }
+
+    /**
+     * Add the separator and the new right node to the level, splitting upwards as needed. The
+     * level always exists, since the root is raised before its new neighbour can be split, unless
+     * the tree was cleared meanwhile, and then the split is dropped with it.
+     *
+     * @param      level      The level
+     * @param      separator  The separator
+     * @param      right      The new right node
+     */
+    private void insertSeparator(int level, int separator, Node right) {
+        while (true) {
+            Node parent = find(level, separator);
+            if (parent == null) {
+                return;
+            }
+            parent = lockFor(parent, separator);
+            if (parent == null) {
+                return;
+            }
+
+            Split split;
+            try {
+                Contents c = parent.contents;
+                int index = lowerBound(c.keys, separator);
+                int[] keys = insertAt(c.keys, index, separator);
+                Node[] children = insertAt(c.children, index + 1, right);
+                if (keys.length <= MAX_KEYS) {
+                    parent.contents = new Contents(keys, children, c.high, c.next);
+                    return;
+                }
+                split = split(parent, keys, children, c);
+            } finally {
+                parent.localLock.unlock();
+            }
+            if (split == null) {
+                return;
+            }
+            level++;
+            separator = split.separator;
+            right = split.right;
+        }
+    }
+
+    /**
+     * Copy the keys with the value inserted at the index.
+     *
+     * @param      keys   The keys
+     * @param      index  The index
+     * @param      value  The value
+     *
+     * @return     The new keys
+     */
+    private static int[] insertAt(int[] keys, int index, int value) {
+        int[] result = new int[keys.length + 1];
+        System.arraycopy(keys, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(keys, index, result, index + 1, keys.length - index);
+        return result;
+    }
+
+    /**
+     * Copy the children with the node inserted at the index.
+     *
+     * @param      children  The children
+     * @param      index     The index
+     * @param      node      The node
+     *
+     * @return     The new children
+     */
+    private static Node[] insertAt(Node[] children, int index, Node node) {
+        Node[] result = new Node[children.length + 1];
+        System.arraycopy(children, 0, result, 0, index);
+        result[index] = node;
+        System.arraycopy(children, index, result, index + 1, children.length - index);
+        return result;
+    }
+
+    /**
+     * Determines if the value is in the tree, without locking.
+     *
+     * @param      value  The value
+     *
+     * @return     True if found, False otherwise.
+     */
+    public boolean contains(int value) {
+        Node node = find(0, value);
+        while (true) {
+            Contents c = node.contents;
+            if (value > c.high) {
+                node = c.next;
+                continue;
+            }
+            int index = lowerBound(c.keys, value);
+            return index < c.keys.length && c.keys[index] == value;
+        }
+    }
+
+    /**
+     * Remove the value from the tree. The leaf is left as it is even when it runs empty, as in the
+     * tree of Lehman and Yao.
+     *
+     * @param      value  The value
+     *
+     * @return     True if removed, False if the value is not in the tree.
+     */
+    public boolean remove(int value) {
+        while (true) {
+            Node node = lockFor(find(0, value), value);
+            if (node == null) {
+                continue;
+            }
+            try {
+                Contents c = node.contents;
+                int index = lowerBound(c.keys, value);
+                if (index == c.keys.length || c.keys[index] != value) {
+                    return false;
+                }
+                int[] keys = new int[c.keys.length - 1];
+                System.arraycopy(c.keys, 0, keys, 0, index);
+                System.arraycopy(c.keys, index + 1, keys, index, keys.length - index);
+                node.contents = new Contents(keys, null, c.high, c.next);
+                count.decrement();
+                return true;
+            } finally {
+                node.localLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Get the first leaf.
+     *
+     * @return     The leaf
+     */
+    private Node firstLeaf() {
+        Node node = root;
+        while (node.level > 0) {
+            node = node.contents.children[0];
+        }
+        return node;
+    }
+
+    /**
+     * Get the smallest value of the tree, the first value of the first leaf that is not empty.
+     *
+     * @return     The smallest value
+     */
+    public int min() {
+        for (Node node = firstLeaf(); node != null; ) {
+            Contents c = node.contents;
+            if (c.keys.length > 0) {
+                return c.keys[0];
+            }
+            node = c.next;
+        }
+        throw new IllegalArgumentException("The Binary Tree is empty!");
+    }
+
+    /**
+     * Get the largest value of the tree. There are no links to the left, so if the last leaf is
+     * empty, the search starts again from the top for the values up to the lower bound of that
+     * leaf, the separator passed on the way down.
+     *
+     * @return     The largest value
+     */
+    public int max() {
+        long bound = NO_HIGH;
+        while (true) {
+            Node node = root;
+            long low = Long.MIN_VALUE;
+            while (true) {
+                Contents c = node.contents;
+                if (bound > c.high) {
+                    low = c.high;
+                    node = c.next;
+                    continue;
+                }
+                int[] keys = c.keys;
+                if (node.level > 0) {
+                    int index = bound > Integer.MAX_VALUE ? keys.length
+                            : lowerBound(keys, (int) bound);
+                    if (index > 0) {
+                        low = keys[index - 1];
+                    }
+                    node = c.children[index];
+                    continue;
+                }
+
+                int index = bound >= Integer.MAX_VALUE ? keys.length
+                        : lowerBound(keys, (int) bound + 1);
+                if (index > 0) {
+                    return keys[index - 1];
+                }
+                break;
+            }
+            if (low == Long.MIN_VALUE) {
+                throw new IllegalArgumentException("The Binary Tree is empty!");
+            }
+            bound = low;
+        }
+    }
+
+    /**
+     * Determines if the Binary Tree is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return count.sum() == 0;
+    }
+
+    /**
+     * Get the size of the Binary Tree.
+     *
+     * @return     The size of the Binary Tree.
+     */
+    public int size() {
+        return count.intValue();
+    }
+
+    /**
+     * Display the Binary Tree in order, walking the leaves along their links. Each leaf is read
+     * as a whole, but leaves changed after they are read are not seen.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Node node = firstLeaf(); node != null; ) {
+            Contents c = node.contents;
+            for (int key : c.keys) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(key);
+            }
+            node = c.next;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,907 @@
+/**
+ * Balanced Thread Safe Binary Tree, with the same API as the Thread Safe Binary Tree.
+ *
+ * A relaxed balance AVL tree, modified based on the tree of Bronson, Casper, Chafi and Olukotun.
+ * Every node has a version which a rotation marks as shrinking before it moves values out of the
+ * subtree of the node and bumps when it is done, and which is set to unlinked when the node leaves
+ * the tree. Readers take no lock at all: they go down reading the versions, and once they stand
+ * on a child they check that the version of the parent did not change, or go back up one level
+ * and try again. Writers lock only the node they change and its parent.
+ *
+ * A removed node with two children stays in the tree as a routing node, which is unlinked once it
+ * has at most one child. After a change, the heights are fixed going up and the nodes out of
+ * balance are rotated with the locks of the parent, the node and its heavy children only, so the
+ * balance is restored locally and the depth stays logarithmic even for sorted inserts.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+
+public class BalancedThreadSafeBinaryTree {
+
+    /**
+     * The version of a node no longer in the tree.
+     */
+    static final long UNLINKED = 1L;
+
+    /**
+     * The bit of the version set while values move out of the subtree of the node.
+     */
+    static final long SHRINKING = 2L;
+
+    /**
+     * The amount added to the version by each completed shrink.
+     */
+    static final long SHRINK_INCREMENT = 4L;
+
+    /**
+     * The number of times a reader checks a shrinking node before waiting on its lock.
+     */
+    static final int SPIN_COUNT = 100;
+
+    /**
+     * The results of nodeCondition besides a new height.
+     */
+    static final int UNLINK_REQUIRED = -1;
+    static final int REBALANCE_REQUIRED = -2;
+    static final int NOTHING_REQUIRED = -3;
+
+    /**
+     * The result of an attempt that has to start again from the level above.
+     */
+    static final int RETRY = -1;
+
+    /**
+     * The Node of the Binary Tree.
+     */
+    class Node {
+        /**
+         * The value of the node.
+         */
+        public final int value;
+        /**
+         * Whether the value is in the set, false for a routing node.
+         */
+        public volatile boolean present;
+        /**
+         * The height of the subtree, only changed under the lock of the node.
+         */
+        public volatile int height;
+        /**
+         * The version of the node.
+         */
+        public volatile long version;
+        /**
+         * Parent node.
+         */
+        public volatile Node parent;
+        /**
+         * Left node.
+         */
+        public volatile Node left;
+        /**
+         * Right node.
+         */
+        public volatile Node right;
+        /**
+         * The local lock of the node.
+         */
+        public final Lock localLock;
+
+        public Node(int val, Node parent) {
+            this.value = val;
+            this.present = true;
+            this.height = 1;
+            this.version = 0L;
+            this.parent = parent;
+            this.localLock = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Instance Variable, the sentinel holding the root as its right child, never shrinking.
+     */
+    private final Node rootHolder;
+
+    /**
+     * Instance Variable, the number of values.
+     */
+    private final LongAdder count;
+
+    /**
+     * Constructor of the Balanced Thread Safe Binary Tree.
+     */
+    BalancedThreadSafeBinaryTree() {
+        this.rootHolder = new Node(-1, null);
+        this.rootHolder.present = false;
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Get the child of the node on the side.
+     */
+    private static Node child(Node node, boolean right) {
+        return right ? node.right : node.left;
+    }
+
+    /**
+     * Set the child of the node on the side.
+     */
+    private static void setChild(Node node, boolean right, Node child) {
+        if (right) {
+            node.right = child;
+        } else {
+            node.left = child;
+        }
+    }
+
+    /**
+     * Get the height of the subtree, 0 for none.
+     */
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * Get the version of a node that starts shrinking.
+     */
+    private static long beginChange(long version) {
+        return version | SHRINKING;
+    }
+
+    /**
+     * Get the version of a node that is done shrinking.
+     */
+    private static long endChange(long version) {
+        return (version & ~SHRINKING) + SHRINK_INCREMENT;
+    }
+
+    /**
+     * Wait until the shrink of the node is over, spinning first and then on its lock.
+     *
+     * @param      node  The node
+     */
+    private static void waitUntilNotChanging(Node node) {
+        long version = node.version;
+        if ((version & SHRINKING) == 0) {
+            return;
+        }
+        for (int i = 0; i < SPIN_COUNT; i++) {
+            if (node.version != version) {
+                return;
+            }
+        }
+        node.localLock.lock();
+        node.localLock.unlock();
+    }
+
+    /**
+     * Clear the binary tree. The sentinel stays locked so that no new write starts, and every node
+     * is locked once from the top down and marked unlinked, so that the writes under way either
+     * finish before it or fail their checks and start again on the empty tree.
+     */
+    public void clear() {
+        rootHolder.localLock.lock();
+        try {
+            ArrayDeque<Node> stack = new ArrayDeque<Node>();
+            if (rootHolder.right != null) {
+                stack.push(rootHolder.right);
+            }
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                node.localLock.lock();
+                try {
+                    node.version = UNLINKED;
+                    if (node.left != null) {
+                        stack.push(node.left);
+                    }
+                    if (node.right != null) {
+                        stack.push(node.right);
+                    }
+                } finally {
+                    node.localLock.unlock();
+                }
+            }
+
+            rootHolder.right = null;
+            count.reset();
+        } finally {
+            rootHolder.localLock.unlock();
+        }
+    }
+
+    /**
+     * Determines if the value is in the tree, without taking any lock.
+     *
+     * @param      value  The value
+     *
+     * @return     True if found, False otherwise.
+     */
+    public boolean contains(int value) {
+        while (true) {
+            int res = attemptContains(value, rootHolder, true, rootHolder.version);
+            if (res != RETRY) {
+                return res == 1;
+            }
+        }
+    }
+
+    /**
+     * Look for the value under the child of the node.
+     *
+     * @param      value    The value
+     * @param      node     The node
+     * @param      right    The side of the child
+     * @param      version  The version of the node when it was reached
+     *
+     * @return     1 if found, 0 if not, RETRY if the node shrank
+     */
+    private int attemptContains(int value, Node node, boolean right, long version) {
+        while (true) {
+            Node nextNode = child(node, right);
+            if (nextNode == null) {
+                return node.version != version ? RETRY : 0;
+            }
+            if (nextNode.value == value) {
+                return nextNode.present ? 1 : 0;
+            }
+
+            long nextVersion = nextNode.version;
+            if ((nextVersion & SHRINKING) != 0) {
+                waitUntilNotChanging(nextNode);
+            } else if (nextVersion != UNLINKED && nextNode == child(node, right)) {
+                if (node.version != version) {
+                    return RETRY;
+                }
+                int res = attemptContains(value, nextNode, value > nextNode.value, nextVersion);
+                if (res != RETRY) {
+                    return res;
+                }
+            }
+            if (node.version != version) {
+                return RETRY;
+            }
+        }
+    }
+
+    /**
+     * Insert the value into the tree.
+     *
+     * @param      value  The value
+     *
+     * @return     True if inserted, False if the value is already in the tree.
+     */
+    public boolean insert(int value) {
+        while (true) {
+            int res = attemptInsert(value, rootHolder, true, rootHolder.version);
+            if (res != RETRY) {
+                return res == 1;
+            }
+        }
+    }
+
+    /**
+     * Insert the value under the child of the node.
+     *
+     * @return     1 if inserted, 0 if already there, RETRY if the node shrank
+     */
+    private int attemptInsert(int value, Node node, boolean right, long version) {
+        while (true) {
+            Node nextNode = child(node, right);
+            if (node.version != version) {
+                return RETRY;
+            }
+
+            int res = RETRY;
+            if (nextNode == null) {
+                res = insertLeaf(value, node, right, version);
+            } else if (nextNode.value == value) {
+                res = insertExisting(nextNode);
+            } else {
+                long nextVersion = nextNode.version;
+                if ((nextVersion & SHRINKING) != 0) {
+                    waitUntilNotChanging(nextNode);
+                } else if (nextVersion != UNLINKED && nextNode == child(node, right)) {
+                    if (node.version != version) {
+                        return RETRY;
+                    }
+                    res = attemptInsert(value, nextNode, value > nextNode.value, nextVersion);
+                }
+            }
+            if (res != RETRY) {
+                return res;
+            }
+        }
+    }
+
+    /**
+     * Link a new node holding the value as the child of the node, then rebalance.
+     */
+    private int insertLeaf(int value, Node node, boolean right, long version) {
+        node.localLock.lock();
+        try {
+            if (node.version != version || child(node, right) != null) {
+                return RETRY;
+            }
+            setChild(node, right, new Node(value, node));
+            count.increment();
+        } finally {
+            node.localLock.unlock();
+        }
+        fixHeightAndRebalance(node);
+        return 1;
+    }
+
+    /**
+     * Put the value back into the routing node holding it, if it is one.
+     */
+    private int insertExisting(Node node) {
+        node.localLock.lock();
+        try {
+            if (node.version == UNLINKED) {
+                return RETRY;
+            }
+            if (node.present) {
+                return 0;
+            }
+            node.present = true;
+            count.increment();
+            return 1;
+        } finally {
+            node.localLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the value from the tree.
+     *
+     * @param      value  The value
+     *
+     * @return     True if removed, False if the value is not in the tree.
+     */
+    public boolean remove(int value) {
+        while (true) {
+            int res = attemptRemove(value, rootHolder, true, rootHolder.version);
+            if (res != RETRY) {
+                return res == 1;
+            }
+        }
+    }
+
+    /**
+     * Remove the value under the child of the node.
+     *
+     * @return     1 if removed, 0 if not there, RETRY if the node shrank
+     */
+    private int attemptRemove(int value, Node node, boolean right, long version) {
+        while (true) {
+            Node nextNode = child(node, right);
+            if (node.version != version) {
+                return RETRY;
+            }
+            if (nextNode == null) {
+                return 0;
+            }
+
+            int res = RETRY;
+            if (nextNode.value == value) {
+                res = removeNode(node, nextNode);
+            } else {
+                long nextVersion = nextNode.version;
+                if ((nextVersion & SHRINKING) != 0) {
+                    waitUntilNotChanging(nextNode);
+                } else if (nextVersion != UNLINKED && nextNode == child(node, right)) {
+                    if (node.version != version) {
+                        return RETRY;
+                    }
+                    res = attemptRemove(value, nextNode, value > nextNode.value, nextVersion);
+                }
+            }
+            if (res != RETRY) {
+                return res;
+            }
+        }
+    }
+
+    /**
+     * Remove the value of the node. A node with two children becomes a routing node, any other is
+     * unlinked under the locks of its parent and itself, then the parent is rebalanced.
+     */
+    private int removeNode(Node parent, Node node) {
+        if (!node.present) {
+            return 0;
+        }
+
+        if (node.left != null && node.right != null) {
+            node.localLock.lock();
+            try {
+                if (node.version == UNLINKED || node.left == null || node.right == null) {
+                    return RETRY;
+                }
+                if (!node.present) {
+                    return 0;
+                }
+                node.present = false;
+                count.decrement();
+                return 1;
+            } finally {
+                node.localLock.unlock();
+            }
+        }
+
+        parent.localLock.lock();
+        try {
+            if (parent.version == UNLINKED || node.parent != parent) {
+                return RETRY;
+            }
+            node.localLock.lock();
+            try {
+                if (!node.present) {
+                    return 0;
+                }
+                if (node.left != null && node.right != null) {
+                    return RETRY;
+                }
+                Node splice = node.left != null ? node.left : node.right;
+                setChild(parent, parent.right == node, splice);
+                if (splice != null) {
+                    splice.parent = parent;
+                }
+                node.version = UNLINKED;
+                node.present = false;
+                count.decrement();
+            } finally {
+                node.localLock.unlock();
+            }
+        } finally {
+            parent.localLock.unlock();
+        }
+        fixHeightAndRebalance(parent);
+        return 1;
+    }
+
+    /**
+     * Tell what the node needs.
+     *
+     * @param      node  The node
+     *
+     * @return     UNLINK_REQUIRED for a routing node with at most one child, REBALANCE_REQUIRED if
+     *             out of balance, the new height if only that is wrong, NOTHING_REQUIRED otherwise
+     */
+    private static int nodeCondition(Node node) {
+        Node left = node.left;
+        Node right = node.right;
+        if ((left == null || right == null) && !node.present) {
+            return UNLINK_REQUIRED;
+        }
+
+        int hL = height(left);
+        int hR = height(right);
+        int bal = hL - hR;
+        if (bal < -1 || bal > 1) {
+            return REBALANCE_REQUIRED;
+        }
+        int hNRepl = 1 + Math.max(hL, hR);
+        return node.height != hNRepl ? hNRepl : NOTHING_REQUIRED;
+    }
+
+    /**
+     * Fix the heights and the balance from the node up, as far as anything changes. A rotation
+     * that leaves its lower node to be fixed first damages the height of its parent too, so after
+     * any rotation the ancestors are checked once more on the way to the root.
+     *
+     * @param      node  The node
+     */
+    private void fixHeightAndRebalance(Node node) {
+        Node last = node;
+        boolean rotated = false;
+        while (true) {
+            while (node != null && node.parent != null) {
+                last = node;
+                int condition = nodeCondition(node);
+                if (condition == NOTHING_REQUIRED || node.version == UNLINKED) {
+                    break;
+                }
+
+                Node locked = node;
+                if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+                    locked.localLock.lock();
+                    try {
+                        node = fixHeight(locked);
+                    } finally {
+                        locked.localLock.unlock();
+                    }
+                } else {
+                    Node parent = locked.parent;
+                    parent.localLock.lock();
+                    try {
+                        if (parent.version != UNLINKED && locked.parent == parent) {
+                            locked.localLock.lock();
+                            try {
+                                node = rebalance(parent, locked);
+                            } finally {
+                                locked.localLock.unlock();
+                            }
+                        }
+                    } finally {
+                        parent.localLock.unlock();
+                    }
+                    if (node == null) {
+                        last = parent;
+                    }
+                    rotated = true;
+                }
+            }
+
+            if (!rotated) {
+                return;
+            }
+            rotated = false;
+            node = null;
+            for (Node ancestor = last; ancestor != null && ancestor.parent != null;
+                    ancestor = ancestor.parent) {
+                if (nodeCondition(ancestor) != NOTHING_REQUIRED && ancestor.version != UNLINKED) {
+                    node = ancestor;
+                    break;
+                }
+            }
+            if (node == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fix the height of the node. Called with the lock of the node.
+     *
+     * @return     The next node to fix, null if none
+     */
+    private Node fixHeight(Node node) {
+        int condition = nodeCondition(node);
+        switch (condition) {
+            case REBALANCE_REQUIRED:
+            case UNLINK_REQUIRED:
+                return node;
+            case NOTHING_REQUIRED:
+                return null;
+            default:
+                node.height = condition;
+                return node.parent;
+        }
+    }
+
+    /**
+     * Unlink or rebalance the node. Called with the locks of the parent and the node.
+     *
+     * @return     The next node to fix, null if none
+     */
+    private Node rebalance(Node parent, Node node) {
+        Node left = node.left;
+        Node right = node.right;
+        if ((left == null || right == null) && !node.present) {
+            return attemptUnlink(parent, node) ? fixHeight(parent) : node;
+        }
+
+        int hL = height(left);
+        int hR = height(right);
+        int bal = hL - hR;
+        if (bal > 1) {
+            return rebalanceTo(parent, node, false, left, hR);
+        } else if (bal < -1) {
+            return rebalanceTo(parent, node, true, right, hL);
+        }
+        int hNRepl = 1 + Math.max(hL, hR);
+        if (hNRepl != node.height) {
+            node.height = hNRepl;
+            return fixHeight(parent);
+        }
+        return null;
+    }
+
+    /**
+     * Unlink a routing node with at most one child. Called with the locks of the parent and the
+     * node.
+     *
+     * @return     True if unlinked, False if it changed meanwhile.
+     */
+    private boolean attemptUnlink(Node parent, Node node) {
+        if (parent.left != node && parent.right != node) {
+            return false;
+        }
+        Node left = node.left;
+        Node right = node.right;
+        if (left != null && right != null) {
+            return false;
+        }
+
+        Node splice = left != null ? left : right;
+        setChild(parent, parent.right == node, splice);
+        if (splice != null) {
+            splice.parent = parent;
+        }
+        node.version = UNLINKED;
+        return true;
+    }
+
+    /**
+     * Rotate the node toward its light side, first rotating its heavy child the other way if that
+     * child leans inward. Called with the locks of the parent and the node.
+     *
+     * @param      parent  The parent
+     * @param      node    The node
+     * @param      right   The heavy side
+     * @param      nS      The heavy child
+     * @param      hO      The height of the light child
+     *
+     * @return     The next node to fix, null if none
+     */
+    private Node rebalanceTo(Node parent, Node node, boolean right, Node nS, int hO) {
+        nS.localLock.lock();
+        try {
+            int hS = nS.height;
+            if (hS - hO <= 1) {
+                return node;
+            }
+
+            Node nSO = child(nS, !right);
+            int hSS0 = height(child(nS, right));
+            int hSO0 = height(nSO);
+            if (hSS0 >= hSO0) {
+                return rotate(parent, node, right, nS, hO, hSS0, nSO, hSO0);
+            }
+
+            nSO.localLock.lock();
+            try {
+                int hSO = nSO.height;
+                if (hSS0 >= hSO) {
+                    return rotate(parent, node, right, nS, hO, hSS0, nSO, hSO);
+                }
+                int hSOS = height(child(nSO, right));
+                int b = hSS0 - hSOS;
+                if (b >= -1 && b <= 1) {
+                    return rotateDouble(parent, node, right, nS, hO, hSS0, nSO, hSOS);
+                }
+            } finally {
+                nSO.localLock.unlock();
+            }
+
+            // The heavy child leans inward too much for a double rotation, rotate it first
+            return rebalanceTo(node, nS, !right, nSO, hSS0);
+        } finally {
+            nS.localLock.unlock();
+        }
+    }
+
+    /**
+     * Rotate the heavy child nS over the node. The node shrinks. Called with the locks of the
+     * parent, the node and nS.
+     *
+     * @return     The next node to fix, null if none
+     */
+    private Node rotate(Node parent, Node node, boolean right, Node nS, int hO, int hSS,
+                        Node nSO, int hSO) {
+        long version = node.version;
+        boolean nodeRight = parent.right == node;
+
+        node.version = beginChange(version);
+        setChild(node, right, nSO);
+        if (nSO != null) {
+            nSO.parent = node;
+        }
+        setChild(nS, !right, node);
+        node.parent = nS;
+        setChild(parent, nodeRight, nS);
+        nS.parent = parent;
+
+        int hNRepl = 1 + Math.max(hSO, hO);
+        node.height = hNRepl;
+        nS.height = 1 + Math.max(hSS, hNRepl);
+        node.version = endChange(version);
+
+        int balN = hSO - hO;
+        if (balN < -1 || balN > 1) {
+            return node;
+        }
+        if ((nSO == null || hO == 0) && !node.present) {
+            return node;
+        }
+        int balS = hSS - hNRepl;
+        if (balS < -1 || balS > 1) {
+            return nS;
+        }
+        if (hSS == 0 && !nS.present) {
+            return nS;
+        }
+        return fixHeight(parent);
+    }
+
+    /**
+     * Rotate the inner grandchild nSO over the heavy child nS and then over the node. The node and
+     * nS shrink. Called with the locks of the parent, the node, nS and nSO.
+     *
+     * @return     The next node to fix, null if none
+     */
+    private Node rotateDouble(Node parent, Node node, boolean right, Node nS, int hO, int hSS,
+                              Node nSO, int hSOS) {
+        long version = node.version;
+        long versionS = nS.version;
+        boolean nodeRight = parent.right == node;
+        Node nSOS = child(nSO, right);
+        Node nSOO = child(nSO, !right);
+        int hSOO = height(nSOO);
+
+        node.version = beginChange(version);
+        nS.version = beginChange(versionS);
+        setChild(node, right, nSOO);
+        if (nSOO != null) {
+            nSOO.parent = node;
+        }
+        setChild(nS, !right, nSOS);
+        if (nSOS != null) {
+            nSOS.parent = nS;
+        }
+        setChild(nSO, right, nS);
+        nS.parent = nSO;
+        setChild(nSO, !right, node);
+        node.parent = nSO;
+        setChild(parent, nodeRight, nSO);
+        nSO.parent = parent;
+
+        int hNRepl = 1 + Math.max(hSOO, hO);
+        node.height = hNRepl;
+        int hSRepl = 1 + Math.max(hSS, hSOS);
+        nS.height = hSRepl;
+        nSO.height = 1 + Math.max(hSRepl, hNRepl);
+        node.version = endChange(version);
+        nS.version = endChange(versionS);
+
+        int balN = hSOO - hO;
+        if (balN < -1 || balN > 1) {
+            return node;
+        }
+        if ((nSOO == null || hO == 0) && !node.present) {
+            return node;
+        }
+        if ((nSOS == null || hSS == 0) && !nS.present) {
+            return nS;
+        }
+        int balSO = hSRepl - hNRepl;
+        if (balSO < -1 || balSO > 1) {
+            return nSO;
+        }
+        return fixHeight(parent);
+    }
+
+    /**
+     * Get the smallest or the largest value of the tree. A routing node found on the edge is
+     * unlinked first.
+     *
+     * @param      right  Whether to get the largest one
+     *
+     * @return     The value
+     */
+    private int edge(boolean right) {
+        while (true) {
+            Node root = rootHolder.right;
+            if (root == null) {
+                throw new IllegalArgumentException("The Binary Tree is empty!");
+            }
+
+            long version = root.version;
+            if ((version & SHRINKING) != 0) {
+                waitUntilNotChanging(root);
+            } else if (version != UNLINKED && root == rootHolder.right) {
+                Node node = attemptEdge(root, right, version);
+                if (node != null) {
+                    if (node.present) {
+                        return node.value;
+                    }
+                    fixHeightAndRebalance(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Go down the side from the node to the last node.
+     *
+     * @return     The last node, null if the node shrank
+     */
+    private Node attemptEdge(Node node, boolean right, long version) {
+        while (true) {
+            Node nextNode = child(node, right);
+            if (nextNode == null) {
+                return node.version != version ? null : node;
+            }
+
+            long nextVersion = nextNode.version;
+            if ((nextVersion & SHRINKING) != 0) {
+                waitUntilNotChanging(nextNode);
+            } else if (nextVersion != UNLINKED && nextNode == child(node, right)) {
+                if (node.version != version) {
+                    return null;
+                }
+                Node res = attemptEdge(nextNode, right, nextVersion);
+                if (res != null) {
+                    return res;
+                }
+            }
+            if (node.version != version) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Get the smallest value of the tree.
+     *
+     * @return     The smallest value
+     */
+    public int min() {
+        if (isEmpty()) {
+            throw new IllegalArgumentException("The Binary Tree is empty!");
+        }
+        return edge(false);
+    }
+
+    /**
+     * Get the largest value of the tree.
+     *
+     * @return     The largest value
+     */
+    public int max() {
+        if (isEmpty()) {
+            throw new IllegalArgumentException("The Binary Tree is empty!");
+        }
+        return edge(true);
+    }
+
+    /**
+     * Determines if the Binary Tree is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return count.sum() == 0;
+    }
+
+    /**
+     * Get the size of the Binary Tree.
+     *
+     * @return     The size of the Binary Tree.
+     */
+    public int size() {
+        return count.intValue();
+    }
+
+    /**
+     * Display the Binary Tree in order. It takes no lock, so it is only exact when no write is
+     * under way.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        Node node = rootHolder.right;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            if (node.present) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(node.value);
+            }
+            node = node.right;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,530 @@
+/**
+ * Persistent Thread Safe Binary Tree, with the same API as the Thread Safe Binary Tree and O(1)
+ * snapshots.
+ *
+ * An AVL tree of distinct ints whose nodes never change once built. A writer copies the path from
+ * the root to the value it inserts or removes, rebalancing the copies on the way up, and publishes
+ * the new root with a CAS, trying again on the newer root if another writer got there first. The
+ * nodes off the path are shared with the old tree, so a write costs O(log n) new nodes.
+ *
+ * A snapshot is the root at one moment. It never changes and is read without any lock, however
+ * long the read takes, and it only keeps alive the nodes the later writes have replaced. Every
+ * read of the tree itself works on a snapshot of the current root.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+public class PersistentThreadSafeBinaryTree {
+
+    /**
+     * The Node of the Binary Tree, never changed once built.
+     */
+    static class Node {
+        /**
+         * The value of the node.
+         */
+        public final int value;
+        /**
+         * Left node.
+         */
+        public final Node left;
+        /**
+         * Right node.
+         */
+        public final Node right;
+        /**
+         * The height of the subtree of the node.
+         */
+        public final int height;
+        /**
+         * The number of nodes in the subtree of the node.
+         */
+        public final int size;
+
+        public Node(int val, Node left, Node right) {
+            this.value = val;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(heightOf(left), heightOf(right)) + 1;
+            this.size = sizeOf(left) + sizeOf(right) + 1;
+        }
+    }
+
+    /**
+     * Instance Variable, the root of the Binary Tree, null if empty.
+     */
+    private final AtomicReference<Node> root;
+
+    /**
+     * Constructor of the Persistent Thread Safe Binary Tree.
+     */
+    PersistentThreadSafeBinaryTree() {
+        this.root = new AtomicReference<Node>();
+    }
+
+    private static int heightOf(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int sizeOf(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Build a node from two subtrees whose heights differ by at most two, rotating it back into
+     * balance if needed.
+     *
+     * @param      value  The value
+     * @param      left   The left subtree
+     * @param      right  The right subtree
+     *
+     * @return     The balanced node
+     */
+    private static Node balance(int value, Node left, Node right) {
+        int hL = heightOf(left);
+        int hR = heightOf(right);
+        if (hL > hR + 1) {
+            if (heightOf(left.left) >= heightOf(left.right)) {
+                return new Node(left.value, left.left, new Node(value, left.right, right));
+            }
+            Node lR = left.right;
+            return new Node(lR.value, new Node(left.value, left.left, lR.left),
+                    new Node(value, lR.right, right));
+        }
+        if (hR > hL + 1) {
+            if (heightOf(right.right) >= heightOf(right.left)) {
+                return new Node(right.value, new Node(value, left, right.left), right.right);
+            }
+            Node rL = right.left;
+            return new Node(rL.value, new Node(value, left, rL.left),
+                    new Node(right.value, rL.right, right.right));
+        }
+        return new Node(value, left, right);
+    }
+
+    /**
+     * Insert the value into the subtree, copying the path to it.
+     *
+     * @param      node   The root of the subtree
+     * @param      value  The value
+     *
+     * @return     The new root of the subtree, the same node if the value is already in it
+     */
+    private static Node insert(Node node, int value) {
+        if (node == null) {
+            return new Node(value, null, null);
+        }
+        if (value < node.value) {
+            Node left = insert(node.left, value);
+            return left == node.left ? node : balance(node.value, left, node.right);
+        }
+        if (value > node.value) {
+            Node right = insert(node.right, value);
+            return right == node.right ? node : balance(node.value, node.left, right);
+        }
+        return node;
+    }
+
+    /**
+     * Remove the value from the subtree, copying the path to it. A node with two children is
+     * replaced by a copy holding the smallest value of its right subtree.
+     *
+     * @param      node   The root of the subtree
+     * @param      value  The value
+     *
+     * @return     The new root of the subtree, the same node if the value is not in it
+     */
+    private static Node remove(Node node, int value) {
+        if (node == null) {
+            return null;
+        }
+        if (value < node.value) {
+            Node left = remove(node.left, value);
+            return left == node.left ? node : balance(node.value, left, node.right);
+        }
+        if (value > node.value) {
+            Node right = remove(node.right, value);
+            return right == node.right ? node : balance(node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node succ = node.right;
+        while (succ.left != null) {
+            succ = succ.left;
+        }
+        return balance(succ.value, node.left, remove(node.right, succ.value));
+    }
+
+    /**
+     * Clear the binary tree. The snapshots taken before keep their values.
+     */
+    public void clear() {
+        root.set(null);
+    }
+
+    /**
+     * Insert the value into the tree.
+     *
+     * @param      value  The value
+     *
+     * @return     True if inserted, False if the value is already in the tree.
+     */
+    public boolean insert(int value) {
+        while (true) {
+            Node old = root.get();
+            Node node = insert(old, value);
+            if (node == old) {
+                return false;
+            }
+            if (root.compareAndSet(old, node)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Remove the value from the tree.
+     *
+     * @param      value  The value
+     *
+     * @return     True if removed, False if the value is not in the tree.
+     */
+    public boolean remove(int value) {
+        while (true) {
+            Node old = root.get();
+            Node node = remove(old, value);
+            if (node == old) {
+                return false;
+            }
+            if (root.compareAndSet(old, node)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot of the tree, in O(1).
+     *
+     * @return     The snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(root.get());
+    }
+
+    /**
+     * Determines if the value is in the tree.
+     *
+     * @param      value  The value
+     *
+     * @return     True if found, False otherwise.
+     */
+    public boolean contains(int value) {
+        return snapshot().contains(value);
+    }
+
+    /**
+     * Get the smallest value of the tree.
+     *
+     * @return     The smallest value
+     */
+    public int min() {
+        return snapshot().min();
+    }
+
+    /**
+     * Get the largest value of the tree.
+     *
+     * @return     The largest value
+     */
+    public int max() {
+        return snapshot().max();
+    }
+
+    /**
+     * Determines if the Binary Tree is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return root.get() == null;
+    }
+
+    /**
+     * Get the size of the Binary Tree.
+     *
+     * @return     The size of the Binary Tree.
+     */
+    public int size() {
+        return sizeOf(root.get());
+    }
+
+    /**
+     * Display the Binary Tree in order.
+     */
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /**
+     * A point in time view of the tree, read without any lock.
+     */
+    public static class Snapshot {
+        /**
+         * The root of the tree when the snapshot was taken.
+         */
+        private final Node root;
+
+        Snapshot(Node root) {
+            this.root = root;
+        }
+
+        /**
+         * Determines if the value is in the snapshot.
+         *
+         * @param      value  The value
+         *
+         * @return     True if found, False otherwise.
+         */
+        public boolean contains(int value) {
+            Node node = root;
+            while (node != null) {
+                if (value == node.value) {
+                    return true;
+                }
+                node = value < node.value ? node.left : node.right;
+            }
+            return false;
+        }
+
+        /**
+         * Get the smallest or the largest value of the snapshot.
+         *
+         * @param      largest  Whether to get the largest one
+         *
+         * @return     The value
+         */
+        private int edge(boolean largest) {
+            Node node = root;
+            if (node == null) {
+                throw new IllegalArgumentException("The Binary Tree is empty!");
+            }
+            Node nextNode = largest ? node.right : node.left;
+            while (nextNode != null) {
+                node = nextNode;
+                nextNode = largest ? node.right : node.left;
+            }
+            return node.value;
+        }
+
+        /**
+         * Get the smallest value of the snapshot.
+         *
+         * @return     The smallest value
+         */
+        public int min() {
+            return edge(false);
+        }
+
+        /**
+         * Get the largest value of the snapshot.
+         *
+         * @return     The largest value
+         */
+        public int max() {
+            return edge(true);
+        }
+
+        /**
+         * Determines if the snapshot is empty.
+         *
+         * @return     True if empty, False otherwise.
+         */
+        public boolean isEmpty() {
+            return root == null;
+        }
+
+        /**
+         * Get the size of the snapshot.
+         *
+         * @return     The size of the snapshot.
+         */
+        public int size() {
+            return sizeOf(root);
+        }
+
+        /**
+         * Count the values below the given one along the path to it.
+         *
+         * @param      value  The value
+         *
+         * @return     The number of values below it
+         */
+        private int countBelow(int value) {
+            int below = 0;
+            Node node = root;
+            while (node != null) {
+                if (node.value < value) {
+                    below += sizeOf(node.left) + 1;
+                    node = node.right;
+                } else {
+                    node = node.left;
+                }
+            }
+            return below;
+        }
+
+        /**
+         * Count the values in the range, in O(log n).
+         *
+         * @param      lo    The start of the range, included
+         * @param      hi    The end of the range, excluded
+         *
+         * @return     The number of values in the range
+         */
+        public int rangeCount(int lo, int hi) {
+            if (hi < lo) {
+                throw new IllegalArgumentException(
+                        "The end of the range cannot be before its start!");
+            }
+            return countBelow(hi) - countBelow(lo);
+        }
+
+        /**
+         * Stream the values in the range in ascending order.
+         *
+         * @param      lo    The start of the range, included
+         * @param      hi    The end of the range, excluded
+         *
+         * @return     The values in the range
+         */
+        public IntStream range(int lo, int hi) {
+            return stream(lo, hi, false);
+        }
+
+        /**
+         * Stream the values in the range in descending order.
+         *
+         * @param      lo    The start of the range, included
+         * @param      hi    The end of the range, excluded
+         *
+         * @return     The values in the range
+         */
+        public IntStream descendingRange(int lo, int hi) {
+            return stream(lo, hi, true);
+        }
+
+        /**
+         * Create a lazy stream of the values in the range, walked with a stack of nodes.
+         *
+         * @param      lo          The start of the range, included
+         * @param      hi          The end of the range, excluded
+         * @param      descending  Whether to go in descending order
+         *
+         * @return     The stream
+         */
+        private IntStream stream(final int lo, final int hi, final boolean descending) {
+            if (hi < lo) {
+                throw new IllegalArgumentException(
+                        "The end of the range cannot be before its start!");
+            }
+            final int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT
+                    | Spliterator.NONNULL | Spliterator.IMMUTABLE
+                    | (descending ? 0 : Spliterator.SORTED);
+            return StreamSupport.intStream(
+                    () -> Spliterators.spliteratorUnknownSize(
+                            new RangeIterator(root, lo, hi, descending), characteristics),
+                    characteristics, false);
+        }
+
+        /**
+         * Display the snapshot in order.
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            ArrayDeque<Node> stack = new ArrayDeque<Node>();
+            Node node = root;
+            while (node != null || !stack.isEmpty()) {
+                while (node != null) {
+                    stack.push(node);
+                    node = node.left;
+                }
+                Node top = stack.pop();
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(top.value);
+                node = top.right;
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The iterator over a range of a snapshot, keeping the nodes whose values are still to come on
+     * a stack, so that each value costs O(1) on average.
+     */
+    static class RangeIterator implements PrimitiveIterator.OfInt {
+        private final ArrayDeque<Node> stack;
+        private final int lo;
+        private final int hi;
+        private final boolean descending;
+
+        public RangeIterator(Node root, int lo, int hi, boolean descending) {
+            this.stack = new ArrayDeque<Node>();
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+
+            // Push the path to the first value, skipping the subtrees out of the range
+            Node node = root;
+            while (node != null) {
+                if (descending ? node.value < hi : node.value >= lo) {
+                    stack.push(node);
+                    node = descending ? node.right : node.left;
+                } else {
+                    node = descending ? node.left : node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (stack.isEmpty()) {
+                return false;
+            }
+            int value = stack.peek().value;
+            return descending ? value >= lo : value < hi;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node top = stack.pop();
+            Node node = descending ? top.left : top.right;
+            while (node != null) {
+                stack.push(node);
+                node = descending ? node.right : node.left;
+            }
+            return top.value;
+        }
+    }
+}
@@ -1,17 +1,37 @@
 /**
  * Thread Safe Binary Tree built from scratch.
  *
+ * A binary search tree of distinct ints. The tree hangs off a sentinel root, so that every real
+ * node has a parent to lock. Each operation goes down from the sentinel with lock coupling, taking
+ * the lock of the child before releasing the parent, so operations in disjoint subtrees run in
+ * parallel once their paths split. Readers take the read locks, writers the write locks, and all
+ * locks are taken from the top down.
+ *
+ * Each node also counts the nodes of its subtree, so that a range is counted along two paths
+ * instead of being walked. An insert raises the counts only once its node is linked and a remove
+ * lowers them before its node is unlinked, so a count never includes a value that is not in the
+ * tree. The tree is not balanced, values that come in order are better kept in the Balanced
+ * Thread Safe Binary Tree.
+ *
  * @author     Hao Wang
- * 
+ *
  * 05/2017
  */
 
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.*;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 public class ThreadSafeBinaryTree {
 
     /**
-     * The Node of the Linked List.
+     * The Node of the Binary Tree.
      */
     class Node {
         /**
@@ -30,58 +50,749 @@ public class ThreadSafeBinaryTree {
          * Right node.
          */
         public Node right;
+        /**
+         * The number of nodes in the subtree of the node, written under its write lock.
+         */
+        public int size;
+        /**
+         * Bumped whenever the node changes its value or leaves its place, written under its
+         * write lock.
+         */
+        public int version;
 
         public Node(int val) {
             this.value = val;
             this.left = null;
             this.right = null;
+            this.size = 1;
+            this.version = 0;
             this.localLock = new ReentrantReadWriteLock();
         }
     }
 
     /**
-     * Instance Variable, the head of the Linked List.
+     * Instance Variable, the sentinel root of the Binary Tree, the tree is its right subtree.
      */
     private Node root;
 
     /**
-     * Constructor of the Thread Safe Linked List.
+     * Instance Variable, the number of nodes.
+     */
+    private final LongAdder count;
+
+    /**
+     * Constructor of the Thread Safe Binary Tree.
      */
     ThreadSafeBinaryTree() {
-        this.head = new Node(-1, null);
+        this.root = new Node(-1);
+        this.count = new LongAdder();
     }
 
     /**
-     * Clear the binary tree.
+     * Get the child of the node on the side of the value, the right one for the sentinel.
+     *
+     * @param      node   The node
+     * @param      value  The value
+     *
+     * @return     The child
+     */
+    private Node child(Node node, int value) {
+        return node == root || value > node.value ? node.right : node.left;
+    }
+
+    /**
+     * Clear the binary tree. The sentinel stays locked so that no new operation starts, and every
+     * node is write locked once from the top down, so that the operations already under way finish
+     * before the nodes are dropped.
      */
     public void clear() {
+        root.localLock.writeLock().lock();
         try {
-            head.localLock.writeLock().lock();
-            head.next = null;
-        } catch (Exception e) {
-            e.printStackTrace();
+            ArrayDeque<Node> stack = new ArrayDeque<Node>();
+            if (root.right != null) {
+                stack.push(root.right);
+            }
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                node.localLock.writeLock().lock();
+                try {
+                    if (node.left != null) {
+                        stack.push(node.left);
+                    }
+                    if (node.right != null) {
+                        stack.push(node.right);
+                    }
+                } finally {
+                    node.localLock.writeLock().unlock();
+                }
+            }
+
+            root.right = null;
+            count.reset();
         } finally {
-            head.localLock.writeLock().unlock();
+            root.localLock.writeLock().unlock();
         }
     }
 
-    public void insert(int val) {
+    /**
+     * Insert the value into the tree. Once the new node is linked, the counts of the nodes passed
+     * are raised going back up the path.
+     *
+     * @param      value  The value
+     *
+     * @return     True if inserted, False if the value is already in the tree.
+     */
+    public boolean insert(int value) {
+        ArrayDeque<Node> path = new ArrayDeque<Node>();
+        Node node = root;
+        node.localLock.writeLock().lock();
+        try {
+            while (true) {
+                Node nextNode = child(node, value);
+                if (nextNode == null) {
+                    if (node == root || value > node.value) {
+                        node.right = new Node(value);
+                    } else {
+                        node.left = new Node(value);
+                    }
+                    count.increment();
+                    break;
+                }
+                nextNode.localLock.writeLock().lock();
+                node.localLock.writeLock().unlock();
+                node = nextNode;
+                if (node.value == value) {
+                    return false;
+                }
+                path.push(node);
+            }
+        } finally {
+            node.localLock.writeLock().unlock();
+        }
 
+        adjust(path, 1);
+        return true;
     }
 
     /**
-     * Determines if the Linked List is empty.
+     * Change the counts of the nodes on a path, write locking them one at a time from the bottom
+     * up, which cannot deadlock with the writers going down since no other lock is held. A count
+     * is only ever changed by one for each value, so the changes add up right in any order, and a
+     * node unlinked meanwhile is not read any more.
+     *
+     * @param      path   The nodes passed, the last one at the bottom
+     * @param      delta  The change to the counts
+     */
+    private void adjust(ArrayDeque<Node> path, int delta) {
+        while (!path.isEmpty()) {
+            Node node = path.pop();
+            node.localLock.writeLock().lock();
+            try {
+                node.size += delta;
+            } finally {
+                node.localLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Determines if the value is in the tree.
+     *
+     * @param      value  The value
+     *
+     * @return     True if found, False otherwise.
+     */
+    public boolean contains(int value) {
+        Node node = root;
+        node.localLock.readLock().lock();
+        try {
+            while (true) {
+                Node nextNode = child(node, value);
+                if (nextNode == null) {
+                    return false;
+                }
+                nextNode.localLock.readLock().lock();
+                node.localLock.readLock().unlock();
+                node = nextNode;
+                if (node.value == value) {
+                    return true;
+                }
+            }
+        } finally {
+            node.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the value from the tree. The parent of the node and the node stay write locked. A
+     * node with two children takes the value of its successor, which is found by coupling the
+     * write locks down the right subtree and then unlinked. Nothing can enter that subtree while
+     * the node is locked, so a reader looking for the successor is always ahead of the writer and
+     * finds it before it moves.
+     *
+     * The counts are lowered on the way down, before the value leaves the tree. The tree is checked
+     * first, so that they only have to be put back when another writer removed the value between
+     * the check and the walk.
+     *
+     * @param      value  The value
+     *
+     * @return     True if removed, False if the value is not in the tree.
+     */
+    public boolean remove(int value) {
+        if (!contains(value)) {
+            return false;
+        }
+
+        ArrayDeque<Node> path = new ArrayDeque<Node>();
+        Node parent = root;
+        parent.localLock.writeLock().lock();
+        try {
+            Node node = child(parent, value);
+            while (node != null) {
+                node.localLock.writeLock().lock();
+                if (node.value == value) {
+                    break;
+                }
+                parent.localLock.writeLock().unlock();
+                parent = node;
+                node.size--;
+                path.push(node);
+                node = child(node, value);
+            }
+
+            if (node != null) {
+                try {
+                    if (node.left == null || node.right == null) {
+                        Node nextNode = node.left != null ? node.left : node.right;
+                        if (parent.right == node) {
+                            parent.right = nextNode;
+                        } else {
+                            parent.left = nextNode;
+                        }
+                    } else {
+                        node.size--;
+                        removeSuccessor(node);
+                    }
+                    node.version++;
+                    count.decrement();
+                    return true;
+                } finally {
+                    node.localLock.writeLock().unlock();
+                }
+            }
+        } finally {
+            parent.localLock.writeLock().unlock();
+        }
+
+        // Removed since the check
+        adjust(path, 1);
+        return false;
+    }
+
+    /**
+     * Move the smallest value of the right subtree of the node into the node and unlink the node
+     * that held it. Called with the write lock of the node.
+     *
+     * @param      node  The node, with two children
+     */
+    private void removeSuccessor(Node node) {
+        Node parent = node;
+        Node succ = node.right;
+        succ.localLock.writeLock().lock();
+        try {
+            while (succ.left != null) {
+                succ.size--;
+                Node nextNode = succ.left;
+                nextNode.localLock.writeLock().lock();
+                if (parent != node) {
+                    parent.localLock.writeLock().unlock();
+                }
+                parent = succ;
+                succ = nextNode;
+            }
+
+            node.value = succ.value;
+            if (parent == node) {
+                parent.right = succ.right;
+            } else {
+                parent.left = succ.right;
+            }
+            succ.version++;
+        } finally {
+            succ.localLock.writeLock().unlock();
+            if (parent != node) {
+                parent.localLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Get the smallest or the largest value of the tree.
+     *
+     * @param      largest  Whether to get the largest one
+     *
+     * @return     The value
+     */
+    private int edge(boolean largest) {
+        Node node = root;
+        node.localLock.readLock().lock();
+        try {
+            Node nextNode = root.right;
+            if (nextNode == null) {
+                throw new IllegalArgumentException("The Binary Tree is empty!");
+            }
+            while (nextNode != null) {
+                nextNode.localLock.readLock().lock();
+                node.localLock.readLock().unlock();
+                node = nextNode;
+                nextNode = largest ? node.right : node.left;
+            }
+            return node.value;
+        } finally {
+            node.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the smallest value of the tree.
+     *
+     * @return     The smallest value
+     */
+    public int min() {
+        return edge(false);
+    }
+
+    /**
+     * Get the largest value of the tree.
+     *
+     * @return     The largest value
+     */
+    public int max() {
+        return edge(true);
+    }
+
+    /**
+     * Get the value nearest to the given one on one side, coupling the read locks down the path to
+     * the given value and keeping the best value seen. The value is the nearest one at the moment
+     * the walk passed its node.
+     *
+     * @param      value      The value
+     * @param      above      Whether to look above the value
+     * @param      inclusive  Whether the value itself counts
+     *
+     * @return     The nearest value, or null if there is none
+     */
+    private Integer nearest(int value, boolean above, boolean inclusive) {
+        Integer best = null;
+        Node node = root;
+        node.localLock.readLock().lock();
+        try {
+            Node nextNode = root.right;
+            while (nextNode != null) {
+                nextNode.localLock.readLock().lock();
+                node.localLock.readLock().unlock();
+                node = nextNode;
+                if (node.value == value && inclusive) {
+                    return value;
+                }
+                if (above ? node.value > value : node.value < value) {
+                    best = node.value;
+                    nextNode = above ? node.left : node.right;
+                } else {
+                    nextNode = above ? node.right : node.left;
+                }
+            }
+            return best;
+        } finally {
+            node.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the largest value not above the given one.
+     *
+     * @param      value  The value
+     *
+     * @return     The value found, or null if there is none
+     */
+    public Integer floor(int value) {
+        return nearest(value, false, true);
+    }
+
+    /**
+     * Get the smallest value not below the given one.
+     *
+     * @param      value  The value
+     *
+     * @return     The value found, or null if there is none
+     */
+    public Integer ceiling(int value) {
+        return nearest(value, true, true);
+    }
+
+    /**
+     * Get the smallest value above the given one.
+     *
+     * @param      value  The value
+     *
+     * @return     The value found, or null if there is none
+     */
+    public Integer higher(int value) {
+        return nearest(value, true, false);
+    }
+
+    /**
+     * Get the largest value below the given one.
+     *
+     * @param      value  The value
+     *
+     * @return     The value found, or null if there is none
+     */
+    public Integer lower(int value) {
+        return nearest(value, false, false);
+    }
+
+    /**
+     * Count the values of a subtree on one side of the bound, along the path to it. Every node on
+     * that side counts with its subtree on the far side, whose count is read under the lock of its
+     * root. Called with the read lock of the parent of the subtree.
+     *
+     * @param      top    The root of the subtree
+     * @param      bound  The bound
+     * @param      above  Whether to count the values not below the bound, or those below it
+     *
+     * @return     The number of values
+     */
+    private int countSide(Node top, int bound, boolean above) {
+        if (top == null) {
+            return 0;
+        }
+        int res = 0;
+        Node node = top;
+        node.localLock.readLock().lock();
+        try {
+            while (true) {
+                Node nextNode;
+                if (above ? node.value >= bound : node.value < bound) {
+                    res++;
+                    Node far = above ? node.right : node.left;
+                    if (far != null) {
+                        far.localLock.readLock().lock();
+                        res += far.size;
+                        far.localLock.readLock().unlock();
+                    }
+                    nextNode = above ? node.left : node.right;
+                } else {
+                    nextNode = above ? node.right : node.left;
+                }
+                if (nextNode == null) {
+                    return res;
+                }
+                nextNode.localLock.readLock().lock();
+                node.localLock.readLock().unlock();
+                node = nextNode;
+            }
+        } finally {
+            node.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the values in the range, in O(h) for a tree of height h. The walk goes down to the node
+     * where the paths to the two ends split and keeps it read locked while both sides are counted
+     * below it. The count is exact when no insert or remove is under way. Otherwise it may miss
+     * the values whose counts are still being raised or lowered, but it never counts a value that
+     * is not in the tree.
+     *
+     * @param      lo    The start of the range, included
+     * @param      hi    The end of the range, excluded
+     *
+     * @return     The number of values in the range
+     */
+    public int rangeCount(int lo, int hi) {
+        if (hi < lo) {
+            throw new IllegalArgumentException("The end of the range cannot be before its start!");
+        }
+        Node node = root;
+        node.localLock.readLock().lock();
+        try {
+            Node nextNode = root.right;
+            while (nextNode != null) {
+                nextNode.localLock.readLock().lock();
+                node.localLock.readLock().unlock();
+                node = nextNode;
+                if (node.value < lo) {
+                    nextNode = node.right;
+                } else if (node.value >= hi) {
+                    nextNode = node.left;
+                } else {
+                    return 1 + countSide(node.left, lo, true) + countSide(node.right, hi, false);
+                }
+            }
+            return 0;
+        } finally {
+            node.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stream the values in the range in ascending order.
+     *
+     * @param      lo    The start of the range, included
+     * @param      hi    The end of the range, excluded
+     *
+     * @return     The values in the range
+     */
+    public IntStream range(int lo, int hi) {
+        return stream(lo, hi, false);
+    }
+
+    /**
+     * Stream the values in the range in descending order.
+     *
+     * @param      lo    The start of the range, included
+     * @param      hi    The end of the range, excluded
+     *
+     * @return     The values in the range
+     */
+    public IntStream descendingRange(int lo, int hi) {
+        return stream(lo, hi, true);
+    }
+
+    /**
+     * Create a lazy stream of the values in the range. Nothing is read before the stream is
+     * consumed, and no lock is held between two values, so the stream is weakly consistent: it
+     * sees the values that stay in the range while it runs and may or may not see the others.
+     *
+     * @param      lo          The start of the range, included
+     * @param      hi          The end of the range, excluded
+     * @param      descending  Whether to go in descending order
+     *
+     * @return     The stream
+     */
+    private IntStream stream(final int lo, final int hi, final boolean descending) {
+        if (hi < lo) {
+            throw new IllegalArgumentException("The end of the range cannot be before its start!");
+        }
+        final int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT
+                | Spliterator.NONNULL | (descending ? 0 : Spliterator.SORTED);
+        return StreamSupport.intStream(
+                () -> Spliterators.spliteratorUnknownSize(new RangeIterator(lo, hi, descending),
+                        characteristics),
+                characteristics, false);
+    }
+
+    /**
+     * A node seen by an iterator, with the version and the value it had then.
+     */
+    class Frame {
+        public final Node node;
+        public final int version;
+        public final int value;
+
+        public Frame(Node node) {
+            this.node = node;
+            this.version = node.version;
+            this.value = node.value;
+        }
+    }
+
+    /**
+     * The iterator over a range. It keeps the nodes it turned away from on its way down on a
+     * stack, as an in order walk does, and goes on from the node it stands on: down its subtree on
+     * the far side, or else back to the top of the stack. A node is only trusted if its version
+     * did not change since it was seen, otherwise the iterator goes down again from the root to
+     * the value after the last one.
+     */
+    class RangeIterator implements PrimitiveIterator.OfInt {
+        private final int lo;
+        private final int hi;
+        private final boolean descending;
+        private final ArrayDeque<Frame> stack;
+        /**
+         * The node of the last value found, null once there is none.
+         */
+        private Frame current;
+        /**
+         * Whether the last value found is still to be returned.
+         */
+        private boolean ready;
+        private boolean started;
+
+        public RangeIterator(int lo, int hi, boolean descending) {
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+            this.stack = new ArrayDeque<Frame>();
+        }
+
+        /**
+         * Go down from the root to the first value after the bound, stacking the nodes on the way
+         * whose values come after it.
+         *
+         * @param      bound      The bound
+         * @param      inclusive  Whether the bound itself counts
+         *
+         * @return     The node of the first value, null if there is none
+         */
+        private Frame seek(int bound, boolean inclusive) {
+            stack.clear();
+            Node node = root;
+            node.localLock.readLock().lock();
+            try {
+                Node nextNode = root.right;
+                while (nextNode != null) {
+                    nextNode.localLock.readLock().lock();
+                    node.localLock.readLock().unlock();
+                    node = nextNode;
+                    boolean after = descending
+                            ? node.value < bound || inclusive && node.value == bound
+                            : node.value > bound || inclusive && node.value == bound;
+                    if (after) {
+                        stack.push(new Frame(node));
+                        nextNode = descending ? node.right : node.left;
+                    } else {
+                        nextNode = descending ? node.left : node.right;
+                    }
+                }
+            } finally {
+                node.localLock.readLock().unlock();
+            }
+            return stack.poll();
+        }
+
+        /**
+         * Find the value after the current one.
+         *
+         * @return     The node of the value, null if there is none
+         */
+        private Frame advance() {
+            Frame last = current;
+            Node node = last.node;
+            boolean valid;
+            node.localLock.readLock().lock();
+            try {
+                valid = node.version == last.version;
+                Node nextNode = descending ? node.left : node.right;
+                while (valid && nextNode != null) {
+                    nextNode.localLock.readLock().lock();
+                    node.localLock.readLock().unlock();
+                    node = nextNode;
+                    stack.push(new Frame(node));
+                    nextNode = descending ? node.right : node.left;
+                }
+            } finally {
+                node.localLock.readLock().unlock();
+            }
+
+            if (valid) {
+                Frame frame = stack.poll();
+                if (frame == null) {
+                    return null;
+                }
+                frame.node.localLock.readLock().lock();
+                try {
+                    valid = frame.node.version == frame.version;
+                } finally {
+                    frame.node.localLock.readLock().unlock();
+                }
+                if (valid) {
+                    return frame;
+                }
+            }
+            return seek(last.value, false);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready) {
+                if (!started) {
+                    current = descending ? seek(hi, false) : seek(lo, true);
+                    started = true;
+                } else if (current != null) {
+                    current = advance();
+                }
+                ready = true;
+            }
+            return current != null && (descending ? current.value >= lo : current.value < hi);
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return current.value;
+        }
+    }
+
+    /**
+     * Determines if the Binary Tree is empty.
      *
      * @return     True if empty, False otherwise.
      */
     public boolean isEmpty() {
+        root.localLock.readLock().lock();
+        try {
+            return root.right == null;
+        } finally {
+            root.localLock.readLock().unlock();
+        }
     }
 
     /**
-     * Get the size of the Linked List.
+     * Get the size of the Binary Tree.
      *
-     * @return     The size of the Linked List.
+     * @return     The size of the Binary Tree.
      */
     public int size() {
+        return count.intValue();
+    }
+
+    /**
+     * Display the Binary Tree in order. The nodes whose left subtree is being visited stay read
+     * locked, and a node is released once the walk moves to its right child.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        root.localLock.readLock().lock();
+        Node node = root.right;
+        Node last = root;
+        try {
+            while (true) {
+                while (node != null) {
+                    node.localLock.readLock().lock();
+                    stack.push(node);
+                    node = node.left;
+                }
+                if (last != null) {
+                    // The right child of last is locked or absent, so it can be released
+                    last.localLock.readLock().unlock();
+                    last = null;
+                }
+                if (stack.isEmpty()) {
+                    break;
+                }
+
+                Node top = stack.pop();
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(top.value);
+                node = top.right;
+                last = top;
+            }
+        } finally {
+            if (last != null) {
+                last.localLock.readLock().unlock();
+            }
+            while (!stack.isEmpty()) {
+                stack.pop().localLock.readLock().unlock();
+            }
+        }
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
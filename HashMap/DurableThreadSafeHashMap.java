@@ -0,0 +1,825 @@
+/**
+ * Durable Thread Safe HashMap, a Thread Safe HashMap whose writes survive a crash, the key cannot
+ * be null.
+ *
+ * Every put, remove and clear is appended to a write-ahead log before it returns. Writers of the
+ * same key are ordered by a striped lock, so the log and the map always agree on the order of the
+ * writes of a key. Forcing the log to the disk is shared: the first writer waiting for its record
+ * writes and forces everything appended so far, and the writers that queued up meanwhile find
+ * their records already durable.
+ *
+ * A snapshot starts a new log, then streams the map into a snapshot file one range of buckets at
+ * a time, without stopping the writers. The snapshot may already hold some writes of the new log,
+ * which is harmless since replaying a put or a remove twice gives the same map. Once the snapshot
+ * is complete and its name is durable the older logs are deleted. Recovery loads the latest snapshot and replays the logs
+ * written since, stopping at the first torn or corrupted record.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+public class DurableThreadSafeHashMap implements Closeable {
+
+    /**
+     * When the log is forced to the disk.
+     */
+    public enum FsyncPolicy {
+        /**
+         * Before every write returns, shared by the writers waiting at the same time.
+         */
+        EVERY_OP,
+        /**
+         * Every fsync interval, in the background. The log is handed to the operating system
+         * before every write returns, so a crash of the process loses nothing and a crash of the
+         * machine at most the last interval.
+         */
+        INTERVAL,
+        /**
+         * Never. The log is handed to the operating system before every write returns, so it
+         * survives a crash of the process but not of the machine.
+         */
+        NEVER
+    }
+
+    /**
+     * The kinds of records.
+     */
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte CLEAR = 3;
+
+    /**
+     * The size of the header of a record: the length of the rest and its CRC32.
+     */
+    static final int RECORD_HEADER = 8;
+
+    /**
+     * The maximum length of a record, longer ones are taken as corrupted.
+     */
+    static final int MAX_RECORD = 1 << 30;
+
+    /**
+     * The number of key locks.
+     */
+    static final int STRIPES = 64;
+
+    /**
+     * The prefixes and suffixes of the log and snapshot files, followed by their generation.
+     */
+    static final String LOG_PREFIX = "wal-";
+    static final String LOG_SUFFIX = ".log";
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+    static final String SNAPSHOT_SUFFIX = ".snap";
+    static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Instance Variable, the map holding the data.
+     */
+    private final ThreadSafeHashMap map;
+
+    /**
+     * Instance Variable, the directory of the files.
+     */
+    private final File directory;
+
+    /**
+     * Instance Variable, the fsync policy.
+     */
+    private final FsyncPolicy policy;
+
+    /**
+     * Instance Variable, the key locks, ordering the log and the map for the writes of a key.
+     */
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Instance Variable, the lock of the pending bytes, taken after the flush lock if both are.
+     */
+    private final ReentrantLock logLock;
+
+    /**
+     * Instance Variable, the lock of the writer of the log file, held while writing and forcing.
+     */
+    private final ReentrantLock flushLock;
+
+    /**
+     * Instance Variable, the lock making the snapshots run one at a time.
+     */
+    private final ReentrantLock snapshotLock;
+
+    /**
+     * Instance Variable, the records appended but not written to the file yet.
+     */
+    private byte[] pending;
+    private int pendingLength;
+
+    /**
+     * Instance Variable, the number of bytes ever appended to the logs, and how many of them are
+     * written to the file, and forced to the disk.
+     */
+    private long appended;
+    private volatile long written;
+    private volatile long durable;
+
+    /**
+     * Instance Variable, the generation of the current log and its channel.
+     */
+    private long generation;
+    private FileChannel channel;
+
+    /**
+     * Instance Variable, the thread forcing the log and taking the snapshots in the background.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Instance Variable, whether the map is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor of the Durable Thread Safe HashMap, forcing the log on every write.
+     *
+     * @param      directory    The directory of the files, created if absent
+     *
+     * @throws     IOException  If the files cannot be read or written
+     */
+    DurableThreadSafeHashMap(String directory) throws IOException {
+        this(directory, FsyncPolicy.EVERY_OP, 0, 0);
+    }
+
+    /**
+     * Constructor of the Durable Thread Safe HashMap, recovering the map from the files in the
+     * directory.
+     *
+     * @param      directory         The directory of the files, created if absent
+     * @param      policy            The fsync policy
+     * @param      fsyncInterval     The milliseconds between two fsyncs for the INTERVAL policy
+     * @param      snapshotInterval  The milliseconds between two snapshots, 0 for none
+     *
+     * @throws     IOException       If the files cannot be read or written
+     */
+    DurableThreadSafeHashMap(String directory, FsyncPolicy policy, long fsyncInterval, long snapshotInterval) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null!");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Fsync policy cannot be null!");
+        }
+        if (policy == FsyncPolicy.INTERVAL && fsyncInterval <= 0) {
+            throw new IllegalArgumentException("Fsync interval has to be positive!");
+        }
+        if (snapshotInterval < 0) {
+            throw new IllegalArgumentException("Snapshot interval cannot be negative!");
+        }
+
+        this.map = new ThreadSafeHashMap();
+        this.directory = new File(directory);
+        this.policy = policy;
+        this.stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.logLock = new ReentrantLock();
+        this.flushLock = new ReentrantLock();
+        this.snapshotLock = new ReentrantLock();
+        this.pending = new byte[1024];
+
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory + "!");
+        }
+        this.generation = recover() + 1;
+        this.channel = openLog(generation);
+
+        if (policy == FsyncPolicy.INTERVAL || snapshotInterval > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "DurableThreadSafeHashMap");
+                t.setDaemon(true);
+                return t;
+            });
+            if (policy == FsyncPolicy.INTERVAL) {
+                scheduler.scheduleWithFixedDelay(this::flushQuietly, fsyncInterval, fsyncInterval,
+                                                 TimeUnit.MILLISECONDS);
+            }
+            if (snapshotInterval > 0) {
+                scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotInterval,
+                                                 snapshotInterval, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Load the latest snapshot and replay the logs written since.
+     *
+     * @return     The latest generation found in the directory
+     */
+    private long recover() throws IOException {
+        // A snapshot that was still being written when the process stopped
+        for (File f : list(SNAPSHOT_PREFIX, TMP_SUFFIX).values()) {
+            f.delete();
+        }
+        TreeMap<Long, File> logs = list(LOG_PREFIX, LOG_SUFFIX);
+        TreeMap<Long, File> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        long latest = 0;
+        long from = 0;
+
+        if (!snapshots.isEmpty()) {
+            from = snapshots.lastKey();
+            latest = from;
+            replay(snapshots.lastEntry().getValue());
+        }
+        for (Long gen : logs.tailMap(from, true).keySet()) {
+            File log = logs.get(gen);
+            long good = replay(log);
+            if (good < log.length()) {
+                // Drop the torn tail so that it is not mistaken for records later
+                RandomAccessFile raf = new RandomAccessFile(log, "rw");
+                try {
+                    raf.setLength(good);
+                } finally {
+                    raf.close();
+                }
+            }
+            latest = Math.max(latest, gen);
+        }
+        return latest;
+    }
+
+    /**
+     * List the files of a kind in the directory by generation.
+     */
+    private TreeMap<Long, File> list(String prefix, String suffix) {
+        TreeMap<Long, File> res = new TreeMap<Long, File>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return res;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                try {
+                    res.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), f);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return res;
+    }
+
+    private File file(String prefix, long gen, String suffix) {
+        return new File(directory, prefix + String.format("%016d", gen) + suffix);
+    }
+
+    /**
+     * Apply the records of a file to the map, up to the first torn or corrupted one.
+     *
+     * @param      file  The log or snapshot file
+     *
+     * @return     The length of the valid records
+     */
+    private long replay(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long good = 0;
+        try {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                long checksum;
+                try {
+                    checksum = in.readInt() & 0xffffffffL;
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                apply(ByteBuffer.wrap(payload));
+                good += RECORD_HEADER + length;
+            }
+        } finally {
+            in.close();
+        }
+        return good;
+    }
+
+    /**
+     * Apply a record to the map.
+     */
+    private void apply(ByteBuffer payload) {
+        byte op = payload.get();
+        if (op == CLEAR) {
+            map.clear();
+            return;
+        }
+        String key = readString(payload);
+        if (op == PUT) {
+            map.put(key, readString(payload));
+        } else {
+            map.remove(key);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode a record, with its length and CRC32 in front.
+     *
+     * @param      op     The kind of record
+     * @param      key    The key, null for a clear
+     * @param      value  The value, null unless for a put
+     *
+     * @return     The record
+     */
+    static byte[] encode(byte op, String key, String value) {
+        byte[] k = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + (k == null ? 0 : 4 + k.length) + (v == null ? 0 : 4 + v.length);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(op);
+        if (k != null) {
+            buffer.putInt(k.length);
+            buffer.put(k);
+        }
+        if (v != null) {
+            buffer.putInt(v.length);
+            buffer.put(v);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Open the log of a generation, the directory is forced when the log is new, so that the writes
+     * forced into it cannot lose their file on a crash.
+     */
+    private FileChannel openLog(long gen) throws IOException {
+        File log = file(LOG_PREFIX, gen, LOG_SUFFIX);
+        boolean created = !log.exists();
+        FileChannel res = new RandomAccessFile(log, "rw").getChannel();
+        if (created) {
+            try {
+                syncDirectory();
+            } catch (IOException e) {
+                res.close();
+                throw e;
+            }
+        }
+        res.position(res.size());
+        return res;
+    }
+
+    /**
+     * Force the entries of the directory, forcing a file only makes its content durable, not its
+     * name.
+     */
+    private void syncDirectory() throws IOException {
+        FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        try {
+            dir.force(true);
+        } finally {
+            dir.close();
+        }
+    }
+
+    private ReentrantLock stripeFor(String key) {
+        return stripes[ThreadSafeHashMap.hash(key) & (STRIPES - 1)];
+    }
+
+    /**
+     * Append a record to the pending bytes, the caller holds the lock of its key.
+     *
+     * @param      record  The record
+     *
+     * @return     The number of bytes ever appended once the record is in
+     */
+    private long append(byte[] record) {
+        logLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Map is closed!");
+            }
+            if (pendingLength + record.length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length << 1, pendingLength + record.length));
+            }
+            System.arraycopy(record, 0, pending, pendingLength, record.length);
+            pendingLength += record.length;
+            appended += record.length;
+            return appended;
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending bytes to the log file, and force them to the disk if asked, unless
+     * another writer already did it for the given position. This is where the writers share
+     * their fsync: whoever gets the flush lock writes everything appended so far.
+     *
+     * @param      position  The number of appended bytes that have to be written
+     * @param      force     Whether they have to be forced to the disk
+     */
+    private void sync(long position, boolean force) {
+        if ((force ? durable : written) >= position) {
+            return;
+        }
+
+        flushLock.lock();
+        try {
+            if ((force ? durable : written) >= position) {
+                return;
+            }
+            long end = writePending();
+            if (force) {
+                channel.force(false);
+                durable = end;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending bytes to the log file, the caller holds the flush lock.
+     *
+     * @return     The number of bytes ever appended that are now written
+     */
+    private long writePending() throws IOException {
+        byte[] bytes;
+        int length;
+        long end;
+        logLock.lock();
+        try {
+            bytes = pending;
+            length = pendingLength;
+            end = appended;
+            pending = new byte[Math.max(1024, bytes.length)];
+            pendingLength = 0;
+        } finally {
+            logLock.unlock();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        written = end;
+        return end;
+    }
+
+    /**
+     * Wait until the record is as durable as the fsync policy asks, at least written to the log
+     * file, so that no acknowledged write is only in memory.
+     *
+     * @param      position  The number of appended bytes once the record was in
+     */
+    private void commit(long position) {
+        sync(position, policy == FsyncPolicy.EVERY_OP);
+    }
+
+    /**
+     * Clear the HashMap, all the key locks are taken so that no write of a key lands around the
+     * clear in the map but not in the log.
+     */
+    public void clear() {
+        long position = 0;
+        lockAll();
+        try {
+            position = append(encode(CLEAR, null, null));
+            map.clear();
+        } finally {
+            unlockAll();
+        }
+        commit(position);
+    }
+
+    /**
+     * Determines if the map contains the key.
+     *
+     * @param      key   The key
+     *
+     * @return     True if contains key, False otherwise.
+     */
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Get the value stored in the HashMap.
+     *
+     * @param      key   The key
+     *
+     * @return     The String Value stored in the HashMap
+     */
+    public String get(String key) {
+        return map.get(key);
+    }
+
+    /**
+     * Put the (key, value) pair into HashMap, returning once it is logged as the fsync policy asks.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     *
+     * @return     Return the value inserted in the HashMap
+     */
+    public String put(String key, String value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+
+        byte[] record = encode(PUT, key, value);
+        long position = 0;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            position = append(record);
+            map.put(key, value);
+        } finally {
+            stripe.unlock();
+        }
+        commit(position);
+        return value;
+    }
+
+    /**
+     * Remove the key from the HashMap, returning once it is logged as the fsync policy asks.
+     *
+     * @param      key   The key
+     *
+     * @return     The removed value, null if absent
+     */
+    public String remove(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+
+        byte[] record = encode(REMOVE, key, null);
+        long position = 0;
+        String res = null;
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            if (map.containsKey(key)) {
+                position = append(record);
+                res = map.remove(key);
+            }
+        } finally {
+            stripe.unlock();
+        }
+        if (position != 0) {
+            commit(position);
+        }
+        return res;
+    }
+
+    /**
+     * Determines if the HashMap is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * Get the number of (key, value) pairs.
+     *
+     * @return     The size
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Give every (key, value) pair of the HashMap to the action, weakly consistent.
+     *
+     * @param      action  The action
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        map.forEach(action);
+    }
+
+    private void lockAll() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Write and force everything logged so far.
+     */
+    public void flush() {
+        long position;
+        logLock.lock();
+        try {
+            position = appended;
+        } finally {
+            logLock.unlock();
+        }
+        sync(position, true);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Take a snapshot of the map and delete the logs it covers.
+     *
+     * The writers are only stopped while the log is switched to a new generation, so that every
+     * write of the old logs is in the map before the snapshot starts reading it.
+     *
+     * @throws     IOException  If the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        snapshotLock.lock();
+        try {
+            long gen;
+            lockAll();
+            try {
+                gen = rotate();
+            } finally {
+                unlockAll();
+            }
+
+            File tmp = file(SNAPSHOT_PREFIX, gen, TMP_SUFFIX);
+            final FileOutputStream file = new FileOutputStream(tmp);
+            final BufferedOutputStream out = new BufferedOutputStream(file, 1 << 16);
+            final IOException[] failure = new IOException[1];
+            try {
+                map.forEach(new BiConsumer<String, String>() {
+                    public void accept(String key, String value) {
+                        if (failure[0] != null) {
+                            return;
+                        }
+                        try {
+                            out.write(encode(PUT, key, value));
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                out.flush();
+                file.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file(SNAPSHOT_PREFIX, gen, SNAPSHOT_SUFFIX).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+
+            // The snapshot covers every generation before its own
+            for (File f : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(gen).values()) {
+                f.delete();
+            }
+            for (File f : list(LOG_PREFIX, LOG_SUFFIX).headMap(gen).values()) {
+                f.delete();
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Force the current log and start the next generation, the caller holds all the key locks.
+     *
+     * @return     The new generation
+     */
+    private long rotate() throws IOException {
+        flushLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Map is closed!");
+            }
+            long end = writePending();
+            channel.force(false);
+            durable = end;
+            channel.close();
+            generation++;
+            channel = openLog(generation);
+            return generation;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Force the log and close it, the HashMap cannot be written afterwards.
+     *
+     * @throws     IOException  If the log cannot be forced
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        lockAll();
+        try {
+            flushLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                long end = writePending();
+                channel.force(false);
+                durable = end;
+                closed = true;
+                channel.close();
+            } finally {
+                flushLock.unlock();
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Display the HashMap.
+     */
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
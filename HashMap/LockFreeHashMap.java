@@ -0,0 +1,771 @@
+/**
+ * Lock Free HashMap, with the same API as the Thread Safe HashMap, the key cannot be null.
+ *
+ * The keys and values are stored in a single atomic array with open addressing and linear
+ * probing, modified based on the non-blocking hash table of Cliff Click. Reads never block,
+ * writes only use CAS, and a full table is copied into a bigger one by all the writers together.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.concurrent.atomic.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public class LockFreeHashMap {
+
+    /**
+     * The minimum number of slots of a table.
+     */
+    static final int MIN_CAPACITY = 16;
+
+    /**
+     * The number of slots copied at a time when resizing.
+     */
+    static final int COPY_CHUNK = 1024;
+
+    /**
+     * The number of reprobes before a table is considered as full.
+     */
+    static final int REPROBE_LIMIT = 10;
+
+    /**
+     * The key of a slot that will never be used, or the value of a removed key.
+     */
+    static final Object TOMBSTONE = new Object();
+
+    /**
+     * The expected value used to update a key no matter what its value is.
+     */
+    static final Object NO_MATCH_OLD = new Object();
+
+    /**
+     * The expected value used to update a key only if it has a value.
+     */
+    static final Object MATCH_ANY = new Object();
+
+    /**
+     * The value of a slot that has been copied into the new table.
+     */
+    static final Prime TOMBPRIME = new Prime(TOMBSTONE);
+
+    /**
+     * The boxed value of a slot that is being copied into the new table.
+     */
+    static class Prime {
+        public final Object value;
+
+        public Prime(Object val) {
+            this.value = val;
+        }
+    }
+
+    /**
+     * The Table storing the keys and values.
+     */
+    class Table {
+        /**
+         * The keys and values, the key of slot i is at 2 * i and its value at 2 * i + 1.
+         */
+        public final AtomicReferenceArray<Object> kvs;
+        /**
+         * The number of slots.
+         */
+        public final int capacity;
+        /**
+         * The number of mappings, shared with the tables copied from this one.
+         */
+        public final LongAdder size;
+        /**
+         * The number of claimed key slots.
+         */
+        public final AtomicInteger slots;
+        /**
+         * The table this one is being copied into.
+         */
+        public final AtomicReference<Table> next;
+        /**
+         * The next slot to copy.
+         */
+        public final AtomicInteger copyIndex;
+        /**
+         * The number of slots copied.
+         */
+        public final AtomicInteger copyDone;
+
+        public Table(int capacity, LongAdder size) {
+            this.kvs = new AtomicReferenceArray<Object>(capacity << 1);
+            this.capacity = capacity;
+            this.size = size;
+            this.slots = new AtomicInteger();
+            this.next = new AtomicReference<Table>();
+            this.copyIndex = new AtomicInteger();
+            this.copyDone = new AtomicInteger();
+        }
+
+        public Object key(int idx) {
+            return kvs.get(idx << 1);
+        }
+
+        public Object value(int idx) {
+            return kvs.get((idx << 1) + 1);
+        }
+
+        public boolean casKey(int idx, Object expect, Object update) {
+            return kvs.compareAndSet(idx << 1, expect, update);
+        }
+
+        public boolean casValue(int idx, Object expect, Object update) {
+            return kvs.compareAndSet((idx << 1) + 1, expect, update);
+        }
+
+        /**
+         * Determines if the table is full and has to be resized.
+         *
+         * @param      reprobes  The number of reprobes of the caller
+         *
+         * @return     True if full, False otherwise.
+         */
+        public boolean isFull(int reprobes) {
+            int used = slots.get();
+            return used >= (capacity >> 1) + (capacity >> 2)
+                || (reprobes >= REPROBE_LIMIT && used >= reprobeLimit(capacity));
+        }
+
+        /**
+         * Start to copy the table into a new one, or get the one already started.
+         *
+         * @return     The new table
+         */
+        public Table resize() {
+            Table nt = next.get();
+            if (nt != null) {
+                return nt;
+            }
+
+            // Grow only if there are enough live keys, otherwise the copy just drops the tombstones
+            long sz = size.sum();
+            int newCapacity = capacity;
+            if (sz >= (capacity >> 2)) {
+                newCapacity = capacity << 1;
+                if (sz >= (capacity >> 1)) {
+                    newCapacity = capacity << 2;
+                }
+            }
+            if (newCapacity < 0) {
+                throw new IllegalStateException("The HashMap is too large!");
+            }
+
+            nt = new Table(newCapacity, size);
+            if (next.compareAndSet(null, nt)) {
+                return nt;
+            }
+            return next.get();
+        }
+
+        /**
+         * Copy a chunk of slots into the new table, or all of them.
+         *
+         * @param      copyAll  True to copy until the whole table is copied
+         */
+        public void helpCopy(boolean copyAll) {
+            int chunk = Math.min(capacity, COPY_CHUNK);
+            boolean panic = false;
+            int copyIdx = -1;
+
+            while (copyDone.get() < capacity) {
+                // Claim a chunk, or copy everything once all the chunks have been claimed
+                if (!panic) {
+                    copyIdx = copyIndex.get();
+                    while (copyIdx < (capacity << 1)
+                        && !copyIndex.compareAndSet(copyIdx, copyIdx + chunk)) {
+                        copyIdx = copyIndex.get();
+                    }
+                    if (copyIdx >= (capacity << 1)) {
+                        panic = true;
+                    }
+                }
+
+                int workDone = 0;
+                for (int i = 0; i < chunk; i++) {
+                    if (copySlot((copyIdx + i) & (capacity - 1))) {
+                        workDone++;
+                    }
+                }
+                if (workDone > 0) {
+                    copyCheckAndPromote(workDone);
+                }
+
+                copyIdx += chunk;
+                if (!copyAll && !panic) {
+                    return;
+                }
+            }
+            copyCheckAndPromote(0);
+        }
+
+        /**
+         * Copy one slot and return the new table.
+         *
+         * @param      idx         The index of the slot
+         * @param      shouldHelp  True to also copy a chunk of other slots
+         *
+         * @return     The new table
+         */
+        public Table copySlotAndCheck(int idx, boolean shouldHelp) {
+            Table nt = next.get();
+            if (copySlot(idx)) {
+                copyCheckAndPromote(1);
+            }
+            return shouldHelp ? helpCopyTop(nt) : nt;
+        }
+
+        /**
+         * Count the copied slots, and promote the new table once all the slots are copied.
+         *
+         * @param      workDone  The number of slots just copied
+         */
+        public void copyCheckAndPromote(int workDone) {
+            int done = copyDone.get();
+            if (workDone > 0) {
+                while (!copyDone.compareAndSet(done, done + workDone)) {
+                    done = copyDone.get();
+                }
+                done += workDone;
+            }
+            if (done == capacity) {
+                table.compareAndSet(this, next.get());
+            }
+        }
+
+        /**
+         * Copy one slot into the new table.
+         *
+         * @param      idx   The index of the slot
+         *
+         * @return     True if this call finished the copy of the slot, False otherwise.
+         */
+        public boolean copySlot(int idx) {
+            // Stop new keys from being inserted into an empty slot
+            Object key;
+            while ((key = key(idx)) == null) {
+                casKey(idx, null, TOMBSTONE);
+            }
+
+            // Box the value so that writers move to the new table
+            Object old = value(idx);
+            while (!(old instanceof Prime)) {
+                Prime box = (old == null || old == TOMBSTONE) ? TOMBPRIME : new Prime(old);
+                if (casValue(idx, old, box)) {
+                    if (box == TOMBPRIME) {
+                        return true;
+                    }
+                    old = box;
+                    break;
+                }
+                old = value(idx);
+            }
+            if (old == TOMBPRIME) {
+                return false;
+            }
+
+            // Only copy if no newer value has been written into the new table
+            Object value = ((Prime) old).value;
+            boolean copied = putIfMatch(next.get(), (String) key, value, null) == null;
+
+            while (old != TOMBPRIME && !casValue(idx, old, TOMBPRIME)) {
+                old = value(idx);
+            }
+            return copied;
+        }
+    }
+
+    /**
+     * Instance Variable, the current table.
+     */
+    private final AtomicReference<Table> table;
+
+    /**
+     * Constructor of the Lock Free HashMap
+     */
+    LockFreeHashMap() {
+        this.table = new AtomicReference<Table>(new Table(MIN_CAPACITY, new LongAdder()));
+    }
+
+    /**
+     * Spread the hash code of the key.
+     *
+     * @param      key   The key
+     *
+     * @return     The spread hash
+     */
+    static int hash(String key) {
+        int h = key.hashCode();
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Get the number of reprobes after which a key is known to be absent from the table.
+     *
+     * @param      capacity  The number of slots
+     *
+     * @return     The reprobe limit
+     */
+    static int reprobeLimit(int capacity) {
+        return REPROBE_LIMIT + (capacity >> 2);
+    }
+
+    /**
+     * Help the copy of the top table before working on the given table.
+     *
+     * @param      helper  The table the caller is going to work on
+     *
+     * @return     The given table
+     */
+    private Table helpCopyTop(Table helper) {
+        Table top = table.get();
+        if (top.next.get() != null) {
+            top.helpCopy(false);
+        }
+        return helper;
+    }
+
+    /**
+     * Clear the HashMap by switching to a new empty table.
+     */
+    public void clear() {
+        table.set(new Table(MIN_CAPACITY, new LongAdder()));
+    }
+
+    /**
+     * Determines if the map contains the key.
+     *
+     * @param      key   The key
+     *
+     * @return     True if contains key, False otherwise.
+     */
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Get the value stored in the HashMap.
+     *
+     * @param      key   The key
+     *
+     * @return     The String Value stored in the HashMap
+     */
+    public String get(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+
+        return (String) getImpl(table.get(), key, hash(key));
+    }
+
+    /**
+     * Get the value of the key from the table, following the tables it is copied into.
+     *
+     * @param      t     The table
+     * @param      key   The key
+     * @param      h     The hash of the key
+     *
+     * @return     The value, null if absent
+     */
+    private Object getImpl(Table t, String key, int h) {
+        while (true) {
+            int mask = t.capacity - 1;
+            int idx = h & mask;
+            int reprobes = 0;
+            Table nt = null;
+
+            while (true) {
+                Object k = t.key(idx);
+                if (k == null) {
+                    return null;
+                }
+
+                Object v = t.value(idx);
+                if (key.equals(k)) {
+                    if (!(v instanceof Prime)) {
+                        return v == TOMBSTONE ? null : v;
+                    }
+                    // The slot is being copied, finish it and look into the new table
+                    nt = t.copySlotAndCheck(idx, true);
+                    break;
+                }
+
+                if (++reprobes >= reprobeLimit(t.capacity) || k == TOMBSTONE) {
+                    nt = t.next.get();
+                    if (nt == null) {
+                        return null;
+                    }
+                    nt = helpCopyTop(nt);
+                    break;
+                }
+                idx = (idx + 1) & mask;
+            }
+            t = nt;
+        }
+    }
+
+    /**
+     * Put the (key, value) pair into HashMap.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     *
+     * @return     Return the value inserted in the HashMap
+     */
+    public String put(String key, String value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+
+        putIfMatch(table.get(), key, value, NO_MATCH_OLD);
+        return value;
+    }
+
+    /**
+     * Put the value of the key if its current value matches the expected one.
+     *
+     * @param      t       The table
+     * @param      key     The key
+     * @param      putVal  The value to put, TOMBSTONE to remove the key
+     * @param      expVal  The expected value, NO_MATCH_OLD for any, MATCH_ANY for any live value,
+     *                     TOMBSTONE for absent, null for an empty slot when copying
+     *
+     * @return     The old value, TOMBSTONE or null if there was none
+     */
+    private Object putIfMatch(Table t, String key, Object putVal, Object expVal) {
+        int h = hash(key);
+
+        while (true) {
+            int mask = t.capacity - 1;
+            int idx = h & mask;
+            int reprobes = 0;
+            Table nt = null;
+            Object k;
+
+            // Find the slot of the key, or claim an empty one
+            while (true) {
+                k = t.key(idx);
+                if (k == null) {
+                    if (putVal == TOMBSTONE) {
+                        return putVal;
+                    }
+                    if (expVal == MATCH_ANY) {
+                        return null;
+                    }
+                    if (t.casKey(idx, null, key)) {
+                        t.slots.incrementAndGet();
+                        break;
+                    }
+                    k = t.key(idx);
+                }
+                if (key.equals(k)) {
+                    break;
+                }
+
+                if (++reprobes >= reprobeLimit(t.capacity) || k == TOMBSTONE) {
+                    nt = t.resize();
+                    if (expVal != null) {
+                        helpCopyTop(nt);
+                    }
+                    break;
+                }
+                idx = (idx + 1) & mask;
+            }
+            if (nt != null) {
+                t = nt;
+                continue;
+            }
+
+            Object v = t.value(idx);
+            if (putVal == v) {
+                return v;
+            }
+
+            // Writers move to the new table once a copy has started
+            nt = t.next.get();
+            if (nt == null && ((v == null && t.isFull(reprobes)) || v instanceof Prime)) {
+                nt = t.resize();
+            }
+            if (nt != null) {
+                t = t.copySlotAndCheck(idx, expVal != null);
+                continue;
+            }
+
+            while (true) {
+                if (expVal != NO_MATCH_OLD
+                    && v != expVal
+                    && (expVal != MATCH_ANY || v == TOMBSTONE || v == null)
+                    && !(v == null && expVal == TOMBSTONE)
+                    && (expVal == null || !expVal.equals(v))) {
+                    return v;
+                }
+
+                if (t.casValue(idx, v, putVal)) {
+                    // Copies do not change the size
+                    if (expVal != null) {
+                        boolean wasLive = v != null && v != TOMBSTONE;
+                        boolean isLive = putVal != TOMBSTONE;
+                        if (!wasLive && isLive) {
+                            t.size.increment();
+                        } else if (wasLive && !isLive) {
+                            t.size.decrement();
+                        }
+                    }
+                    return (v == null && expVal != null) ? TOMBSTONE : v;
+                }
+
+                v = t.value(idx);
+                if (v instanceof Prime) {
+                    break;
+                }
+            }
+            t = t.copySlotAndCheck(idx, expVal != null);
+        }
+    }
+
+    /**
+     * Put the (key, value) pair into HashMap if the key is absent.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     *
+     * @return     The value already stored in the HashMap, null if the value was put
+     */
+    public String putIfAbsent(String key, String value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+
+        Object old = putIfMatch(table.get(), key, value, TOMBSTONE);
+        return old == TOMBSTONE ? null : (String) old;
+    }
+
+    /**
+     * Replace the value of the key only if it is currently the expected one.
+     *
+     * @param      key       The key
+     * @param      expected  The expected value
+     * @param      value     The new value
+     *
+     * @return     True if replaced, False otherwise.
+     */
+    public boolean replace(String key, String expected, String value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (expected == null || value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+
+        // The old value is returned both on success and on failure, it only matches on success
+        return expected.equals(putIfMatch(table.get(), key, value, expected));
+    }
+
+    /**
+     * Remove the key only if its value is currently the expected one.
+     *
+     * @param      key       The key
+     * @param      expected  The expected value
+     *
+     * @return     True if removed, False otherwise.
+     */
+    private boolean remove(String key, String expected) {
+        return expected.equals(putIfMatch(table.get(), key, TOMBSTONE, expected));
+    }
+
+    /**
+     * Compute the value of an absent key and put it into HashMap, atomically.
+     * The function may be called by several threads racing on the same key, but only one of the
+     * values is put and returned to all of them.
+     *
+     * @param      key       The key
+     * @param      function  The function computing the value from the key, returning null to put
+     *                       nothing
+     *
+     * @return     The value stored in the HashMap, null if none
+     */
+    public String computeIfAbsent(String key, Function<String, String> function) {
+        if (function == null) {
+            throw new IllegalArgumentException("Function cannot be null!");
+        }
+
+        String old = get(key);
+        if (old != null) {
+            return old;
+        }
+        String value = function.apply(key);
+        if (value == null) {
+            return null;
+        }
+        old = putIfAbsent(key, value);
+        return old != null ? old : value;
+    }
+
+    /**
+     * Compute the new value of a present key, atomically.
+     * The function is called again if the value changes before the new one is put.
+     *
+     * @param      key       The key
+     * @param      function  The function computing the new value from the key and the old value,
+     *                       returning null to remove the key
+     *
+     * @return     The new value stored in the HashMap, null if none
+     */
+    public String computeIfPresent(String key, BiFunction<String, String, String> function) {
+        if (function == null) {
+            throw new IllegalArgumentException("Function cannot be null!");
+        }
+
+        while (true) {
+            String old = get(key);
+            if (old == null) {
+                return null;
+            }
+            String value = function.apply(key, old);
+            if (value == null) {
+                if (remove(key, old)) {
+                    return null;
+                }
+            } else if (replace(key, old, value)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Put the value if the key is absent, otherwise merge it with the old value, atomically.
+     * The function is called again if the value changes before the new one is put.
+     *
+     * @param      key       The key
+     * @param      value     The value
+     * @param      function  The function merging the old value with the value, returning null to
+     *                       remove the key
+     *
+     * @return     The new value stored in the HashMap, null if none
+     */
+    public String merge(String key, String value, BiFunction<String, String, String> function) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+        if (function == null) {
+            throw new IllegalArgumentException("Function cannot be null!");
+        }
+
+        while (true) {
+            String old = get(key);
+            if (old == null) {
+                if (putIfAbsent(key, value) == null) {
+                    return value;
+                }
+                continue;
+            }
+            String merged = function.apply(old, value);
+            if (merged == null) {
+                if (remove(key, old)) {
+                    return null;
+                }
+            } else if (replace(key, old, merged)) {
+                return merged;
+            }
+        }
+    }
+
+    /**
+     * Determines if the HashMap is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Remove the element with the given key from the HashMap.
+     *
+     * @param      key   The key
+     *
+     * @return     The String Value stored in the HashMap
+     */
+    public String remove(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+
+        Object old = putIfMatch(table.get(), key, TOMBSTONE, NO_MATCH_OLD);
+        return old == TOMBSTONE ? null : (String) old;
+    }
+
+    /**
+     * Get the size of the HashMap.
+     *
+     * @return     The size of the HashMap.
+     */
+    public int size() {
+        long res = table.get().size.sum();
+        if (res < 0) {
+            return 0;
+        }
+        return res > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) res;
+    }
+
+    /**
+     * Get the top table once no copy is in progress.
+     *
+     * @return     The top table
+     */
+    private Table stableTable() {
+        while (true) {
+            Table top = table.get();
+            if (top.next.get() == null) {
+                return top;
+            }
+            top.helpCopy(true);
+        }
+    }
+
+    /**
+     * Display the HashMap.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        Table t = stableTable();
+        for (int i = 0; i < t.capacity; i++) {
+            Object k = t.key(i);
+            if (k == null || k == TOMBSTONE) {
+                continue;
+            }
+            Object v = t.value(i);
+            if (v instanceof Prime) {
+                v = getImpl(t, (String) k, hash((String) k));
+            }
+            if (v == null || v == TOMBSTONE) {
+                continue;
+            }
+            sb.append("[");
+            sb.append(k);
+            sb.append(", ");
+            sb.append(v);
+            sb.append("] ");
+        }
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,743 @@
+/**
+ * Mapped Thread Safe HashMap, a Thread Safe HashMap kept off the heap in memory-mapped files, the
+ * key cannot be null.
+ *
+ * The keys and values are appended as UTF-8 records to a data file, and an open addressing index
+ * of their offsets is kept in an index file, so the heap only holds the mappings themselves.
+ * Opening existing files makes the map usable right away: nothing is replayed, and the pages of
+ * both files are only loaded by the operating system when they are touched.
+ *
+ * Readers share a read lock and writers take the write lock. The files are written through the
+ * mappings and only forced to the disk by flush and close, so they are meant for a fast restart
+ * after a clean shutdown, not for surviving a crash.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.*;
+import java.util.function.BiConsumer;
+
+public class MappedThreadSafeHashMap implements Closeable {
+
+    /**
+     * The first ints of the index file and of the data file.
+     */
+    static final int INDEX_MAGIC = 0x54534849;
+    static final int DATA_MAGIC = 0x54534844;
+
+    /**
+     * The version of the file format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the header of the index file: magic, version, slots, count and used slots.
+     */
+    static final int INDEX_HEADER = 32;
+
+    /**
+     * The size of a slot of the index: the offset of the record, the hash and the key length.
+     */
+    static final int SLOT_SIZE = 16;
+
+    /**
+     * The size of the header of the data file: magic, version and the end of the records.
+     */
+    static final int DATA_HEADER = 16;
+
+    /**
+     * The size of the header of a record: the key length and the value length.
+     */
+    static final int RECORD_HEADER = 8;
+
+    /**
+     * The number of slots of a new index.
+     */
+    static final int INITIAL_SLOTS = 1024;
+
+    /**
+     * The maximum number of slots, so that the index fits in one mapping.
+     */
+    static final int MAX_SLOTS = 1 << 26;
+
+    /**
+     * The ratio of used slots, removed ones included, over which the index is rebuilt.
+     */
+    static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * The data file is mapped in chunks of 64 MB, a record never spans two chunks.
+     */
+    static final int CHUNK_BITS = 26;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * The maximum number of chunks, for 1 TB of data.
+     */
+    static final int MAX_CHUNKS = 1 << 14;
+
+    /**
+     * The offset of a slot never used, and of a slot whose key was removed.
+     */
+    static final long EMPTY = 0;
+    static final long TOMBSTONE = -1;
+
+    /**
+     * Instance Variable, the index file and the data file.
+     */
+    private final File indexFile;
+    private final File dataFile;
+
+    /**
+     * Instance Variable, the channels of the files.
+     */
+    private FileChannel indexChannel;
+    private FileChannel dataChannel;
+
+    /**
+     * Instance Variable, the mapping of the whole index file.
+     */
+    private MappedByteBuffer index;
+
+    /**
+     * Instance Variable, the chunks of the data file, mapped the first time they are touched.
+     */
+    private AtomicReferenceArray<MappedByteBuffer> chunks;
+
+    /**
+     * Instance Variable, the number of slots of the index.
+     */
+    private int capacity;
+
+    /**
+     * Instance Variable, the number of slots holding a key or a removed key.
+     */
+    private int used;
+
+    /**
+     * Instance Variable, the number of mappings, read without the lock.
+     */
+    private volatile int count;
+
+    /**
+     * Instance Variable, the offset where the next record is appended.
+     */
+    private long end;
+
+    /**
+     * Instance Variable, whether the files are closed.
+     */
+    private boolean closed;
+
+    /**
+     * Instance Variable, the lock of the map.
+     */
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * Constructor of the Mapped Thread Safe HashMap, opening the files if they exist and creating
+     * them otherwise.
+     *
+     * @param      path         The path of the files, without the extension
+     *
+     * @throws     IOException  If the files cannot be opened or are not valid
+     */
+    MappedThreadSafeHashMap(String path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null!");
+        }
+
+        this.indexFile = new File(path + ".idx");
+        this.dataFile = new File(path + ".dat");
+        this.lock = new ReentrantReadWriteLock();
+        this.chunks = new AtomicReferenceArray<MappedByteBuffer>(MAX_CHUNKS);
+        this.dataChannel = new RandomAccessFile(dataFile, "rw").getChannel();
+
+        if (!indexFile.exists() || indexFile.length() == 0) {
+            MappedByteBuffer header = chunk(0);
+            header.putInt(0, DATA_MAGIC);
+            header.putInt(4, VERSION);
+            setEnd(DATA_HEADER);
+            rebuildIndex(INITIAL_SLOTS, false);
+            return;
+        }
+
+        MappedByteBuffer header = chunk(0);
+        if (header.getInt(0) != DATA_MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Invalid data file!");
+        }
+        this.end = header.getLong(8);
+
+        this.indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+        this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw new IOException("Invalid index file!");
+        }
+        this.capacity = index.getInt(8);
+        this.count = index.getInt(12);
+        this.used = index.getInt(16);
+    }
+
+    /**
+     * Get the chunk of the data file holding the offset, mapping it if it is the first time.
+     *
+     * @param      i     The number of the chunk
+     *
+     * @return     The mapping of the chunk
+     */
+    private MappedByteBuffer chunk(int i) {
+        MappedByteBuffer res = chunks.get(i);
+        if (res != null) {
+            return res;
+        }
+
+        synchronized (chunks) {
+            res = chunks.get(i);
+            if (res == null) {
+                try {
+                    res = dataChannel.map(FileChannel.MapMode.READ_WRITE, (long) i << CHUNK_BITS, CHUNK_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                chunks.set(i, res);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Set where the next record is appended, in memory and in the header of the data file.
+     */
+    private void setEnd(long end) {
+        this.end = end;
+        chunk(0).putLong(8, end);
+    }
+
+    /**
+     * Copy the counters into the header of the index file.
+     */
+    private void writeIndexHeader() {
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(8, capacity);
+        index.putInt(12, count);
+        index.putInt(16, used);
+    }
+
+    private static int slot(int i) {
+        return INDEX_HEADER + i * SLOT_SIZE;
+    }
+
+    /**
+     * Determines if the record at the offset has the key.
+     *
+     * @param      ref   The offset of the record
+     * @param      key   The key in UTF-8
+     *
+     * @return     True if the record has the key, False otherwise.
+     */
+    private boolean keyEquals(long ref, byte[] key) {
+        MappedByteBuffer chunk = chunk((int) (ref >>> CHUNK_BITS));
+        int pos = (int) (ref & (CHUNK_SIZE - 1));
+        if (chunk.getInt(pos) != key.length) {
+            return false;
+        }
+        pos += RECORD_HEADER;
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(pos + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the key or the value of the record at the offset.
+     *
+     * @param      ref    The offset of the record
+     * @param      value  True for the value, False for the key
+     *
+     * @return     The key or the value
+     */
+    private String readString(long ref, boolean value) {
+        MappedByteBuffer chunk = chunk((int) (ref >>> CHUNK_BITS));
+        int pos = (int) (ref & (CHUNK_SIZE - 1));
+        int keyLength = chunk.getInt(pos);
+        int length = value ? chunk.getInt(pos + 4) : keyLength;
+        pos += RECORD_HEADER + (value ? keyLength : 0);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = chunk.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find the slot of the key, the caller holds the lock.
+     *
+     * @param      key   The key in UTF-8
+     * @param      hash  The hash of the key
+     *
+     * @return     The slot if the key is present, otherwise -(the slot to insert it into) - 1,
+     *             or -(capacity) - 1 if no slot is free
+     */
+    private int probe(byte[] key, int hash) {
+        int mask = capacity - 1;
+        int free = -1;
+        int i = hash & mask;
+        for (int n = 0; n < capacity; n++, i = (i + 1) & mask) {
+            int p = slot(i);
+            long ref = index.getLong(p);
+            if (ref == EMPTY) {
+                return -(free < 0 ? i : free) - 1;
+            }
+            if (ref == TOMBSTONE) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (index.getInt(p + 8) == hash && index.getInt(p + 12) == key.length
+                    && keyEquals(ref, key)) {
+                return i;
+            }
+        }
+        return -(free < 0 ? capacity : free) - 1;
+    }
+
+    /**
+     * Append a record to the data file, the caller holds the write lock.
+     *
+     * @param      key    The key in UTF-8
+     * @param      value  The value in UTF-8
+     *
+     * @return     The offset of the record
+     */
+    private long append(byte[] key, byte[] value) {
+        long size = (long) RECORD_HEADER + key.length + value.length;
+        if (size > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Entry is too large!");
+        }
+        long ref = end;
+        if ((ref & (CHUNK_SIZE - 1)) + size > CHUNK_SIZE) {
+            // Start the next chunk rather than splitting the record
+            ref = (ref | (CHUNK_SIZE - 1)) + 1;
+        }
+        if (ref + size > (long) MAX_CHUNKS << CHUNK_BITS) {
+            throw new IllegalStateException("Data file is full!");
+        }
+
+        MappedByteBuffer chunk = chunk((int) (ref >>> CHUNK_BITS));
+        int pos = (int) (ref & (CHUNK_SIZE - 1));
+        chunk.putInt(pos, key.length);
+        chunk.putInt(pos + 4, value.length);
+        writeBytes(chunk, pos + RECORD_HEADER, key);
+        writeBytes(chunk, pos + RECORD_HEADER + key.length, value);
+        setEnd(ref + size);
+        return ref;
+    }
+
+    private static void writeBytes(MappedByteBuffer chunk, int pos, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            chunk.put(pos + i, bytes[i]);
+        }
+    }
+
+    /**
+     * Write a new index file and swap it in, the caller holds the write lock. The current index is
+     * only replaced once the new one is complete, so it stays usable if the new one cannot be
+     * written.
+     *
+     * @param      slots        The number of slots of the new index
+     * @param      copy         Whether the live slots of the current index are copied over
+     *
+     * @throws     IOException  If the file cannot be written
+     */
+    private void rebuildIndex(int slots, boolean copy) throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        FileChannel channel = new RandomAccessFile(tmp, "rw").getChannel();
+        MappedByteBuffer buffer;
+        int live = 0;
+        try {
+            channel.truncate(0);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) slots * SLOT_SIZE);
+
+            int mask = slots - 1;
+            for (int i = 0; copy && index != null && i < capacity; i++) {
+                int p = slot(i);
+                long ref = index.getLong(p);
+                if (ref == EMPTY || ref == TOMBSTONE) {
+                    continue;
+                }
+                int hash = index.getInt(p + 8);
+                int j = hash & mask;
+                while (buffer.getLong(slot(j)) != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                buffer.putLong(slot(j), ref);
+                buffer.putInt(slot(j) + 8, hash);
+                buffer.putInt(slot(j) + 12, index.getInt(p + 12));
+                live++;
+            }
+
+            buffer.force();
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+        indexChannel = channel;
+        index = buffer;
+        capacity = slots;
+        used = live;
+        count = live;
+        writeIndexHeader();
+    }
+
+    /**
+     * Rebuild the index if too many slots are used, dropping the removed keys and doubling the
+     * slots if the live keys alone are over half the load, the caller holds the write lock.
+     */
+    private void maybeRebuildIndex() throws IOException {
+        if (used <= capacity * LOAD_FACTOR) {
+            return;
+        }
+        int slots = capacity;
+        if (count > capacity * LOAD_FACTOR / 2 && slots < MAX_SLOTS) {
+            slots <<= 1;
+        }
+        rebuildIndex(slots, true);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Map is closed!");
+        }
+    }
+
+    /**
+     * Clear the HashMap, dropping every record.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            rebuildIndex(INITIAL_SLOTS, false);
+            setEnd(DATA_HEADER);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Determines if the map contains the key.
+     *
+     * @param      key   The key
+     *
+     * @return     True if contains key, False otherwise.
+     */
+    public boolean containsKey(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = ThreadSafeHashMap.hash(key);
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return probe(bytes, hash) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the value stored in the HashMap.
+     *
+     * @param      key   The key
+     *
+     * @return     The String Value stored in the HashMap
+     */
+    public String get(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = ThreadSafeHashMap.hash(key);
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            int i = probe(bytes, hash);
+            return i < 0 ? null : readString(index.getLong(slot(i)), true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Put the (key, value) pair into HashMap. A value of the same length as the old one is
+     * overwritten in place, otherwise a new record is appended.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     *
+     * @return     Return the value inserted in the HashMap
+     */
+    public String put(String key, String value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int hash = ThreadSafeHashMap.hash(key);
+        String res = null;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int i = probe(keyBytes, hash);
+            if (i >= 0) {
+                long ref = index.getLong(slot(i));
+                MappedByteBuffer chunk = chunk((int) (ref >>> CHUNK_BITS));
+                int pos = (int) (ref & (CHUNK_SIZE - 1));
+                if (chunk.getInt(pos + 4) == valueBytes.length) {
+                    writeBytes(chunk, pos + RECORD_HEADER + keyBytes.length, valueBytes);
+                } else {
+                    index.putLong(slot(i), append(keyBytes, valueBytes));
+                }
+            } else {
+                // Past this the index could not grow any more and would run out of free slots
+                if (count + 1 > MAX_SLOTS * LOAD_FACTOR || i == -capacity - 1) {
+                    throw new IllegalStateException("Index is full!");
+                }
+                i = -i - 1;
+                if (index.getLong(slot(i)) == EMPTY) {
+                    used++;
+                }
+                long ref = append(keyBytes, valueBytes);
+                index.putInt(slot(i) + 8, hash);
+                index.putInt(slot(i) + 12, keyBytes.length);
+                index.putLong(slot(i), ref);
+                count++;
+                writeIndexHeader();
+                maybeRebuildIndex();
+            }
+            res = value;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return res;
+    }
+
+    /**
+     * Remove the key from the HashMap, its record stays in the data file until compact.
+     *
+     * @param      key   The key
+     *
+     * @return     The removed value, null if absent
+     */
+    public String remove(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = ThreadSafeHashMap.hash(key);
+        String res = null;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int i = probe(bytes, hash);
+            if (i >= 0) {
+                res = readString(index.getLong(slot(i)), true);
+                index.putLong(slot(i), TOMBSTONE);
+                count--;
+                writeIndexHeader();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return res;
+    }
+
+    /**
+     * Determines if the HashMap is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Get the number of (key, value) pairs.
+     *
+     * @return     The size
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Give every (key, value) pair of the HashMap to the action, under the read lock, so the
+     * action must not write to this HashMap.
+     *
+     * @param      action  The action
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        if (action == null) {
+            throw new IllegalArgumentException("Action cannot be null!");
+        }
+
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (int i = 0; i < capacity; i++) {
+                long ref = index.getLong(slot(i));
+                if (ref != EMPTY && ref != TOMBSTONE) {
+                    action.accept(readString(ref, false), readString(ref, true));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the data file with only the live records, reclaiming the space of the removed keys
+     * and of the replaced values.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            File tmp = new File(dataFile.getPath() + ".tmp");
+            FileChannel channel = new RandomAccessFile(tmp, "rw").getChannel();
+            channel.truncate(0);
+
+            FileChannel oldChannel = dataChannel;
+            AtomicReferenceArray<MappedByteBuffer> oldChunks = chunks;
+            long[] refs = new long[capacity];
+            dataChannel = channel;
+            chunks = new AtomicReferenceArray<MappedByteBuffer>(MAX_CHUNKS);
+            chunk(0).putInt(0, DATA_MAGIC);
+            chunk(0).putInt(4, VERSION);
+            setEnd(DATA_HEADER);
+
+            for (int i = 0; i < capacity; i++) {
+                long ref = index.getLong(slot(i));
+                if (ref == EMPTY || ref == TOMBSTONE) {
+                    continue;
+                }
+                // Copy the record as bytes from the old chunks into the new file
+                MappedByteBuffer from = oldChunks.get((int) (ref >>> CHUNK_BITS));
+                int pos = (int) (ref & (CHUNK_SIZE - 1));
+                byte[] key = new byte[from.getInt(pos)];
+                byte[] value = new byte[from.getInt(pos + 4)];
+                for (int k = 0; k < key.length; k++) {
+                    key[k] = from.get(pos + RECORD_HEADER + k);
+                }
+                for (int k = 0; k < value.length; k++) {
+                    value[k] = from.get(pos + RECORD_HEADER + key.length + k);
+                }
+                refs[i] = append(key, value);
+            }
+
+            for (int i = 0; i < capacity; i++) {
+                if (refs[i] != 0) {
+                    index.putLong(slot(i), refs[i]);
+                }
+            }
+            flush();
+            Files.move(tmp.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            oldChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Force the mapped pages of both files to the disk.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (int i = 0; i < MAX_CHUNKS; i++) {
+                MappedByteBuffer chunk = chunks.get(i);
+                if (chunk != null) {
+                    chunk.force();
+                }
+            }
+            index.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flush and close the files, the HashMap cannot be used afterwards.
+     *
+     * @throws     IOException  If the files cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+            indexChannel.close();
+            dataChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Display the HashMap.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        forEach(new BiConsumer<String, String>() {
+            public void accept(String key, String value) {
+                sb.append("[");
+                sb.append(key);
+                sb.append(", ");
+                sb.append(value);
+                sb.append("] ");
+            }
+        });
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,842 @@
+/**
+ * Thread Safe Cache, a Thread Safe HashMap bounded by the number or the weight of its entries,
+ * the key cannot be null.
+ *
+ * Reads and writes go straight to the HashMap and only record what they did in buffers. The
+ * buffers are replayed into the eviction policy by whichever thread gets the eviction lock, so the
+ * bookkeeping never makes a reader wait: a reader that cannot record its access just drops it.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.ToIntBiFunction;
+
+public class ThreadSafeCache {
+
+    /**
+     * The number of accesses each read buffer holds.
+     */
+    static final int READ_BUFFER_SIZE = 16;
+
+    /**
+     * The number of pending writes above which writers wait for the eviction lock.
+     */
+    static final int WRITE_BUFFER_MAX = 1024;
+
+    /**
+     * The Eviction Policy of the cache, only called under the eviction lock.
+     */
+    public interface EvictionPolicy {
+        /**
+         * Record a new key.
+         *
+         * @param      key   The key
+         */
+        void onInsert(String key);
+
+        /**
+         * Record a read or an update of a key.
+         *
+         * @param      key   The key
+         */
+        void onAccess(String key);
+
+        /**
+         * Forget a key removed from the cache.
+         *
+         * @param      key   The key
+         */
+        void onRemove(String key);
+
+        /**
+         * Choose the key to evict and forget it.
+         *
+         * @return     The key to evict, null if there is none
+         */
+        String victim();
+
+        /**
+         * Forget all the keys.
+         */
+        void clear();
+    }
+
+    /**
+     * Least Recently Used policy.
+     */
+    public static class LruPolicy implements EvictionPolicy {
+        /**
+         * The keys, from the least to the most recently used.
+         */
+        private final LinkedHashSet<String> keys = new LinkedHashSet<String>();
+
+        public void onInsert(String key) {
+            keys.add(key);
+        }
+
+        public void onAccess(String key) {
+            if (keys.remove(key)) {
+                keys.add(key);
+            }
+        }
+
+        public void onRemove(String key) {
+            keys.remove(key);
+        }
+
+        public String victim() {
+            Iterator<String> it = keys.iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            String key = it.next();
+            it.remove();
+            return key;
+        }
+
+        public void clear() {
+            keys.clear();
+        }
+    }
+
+    /**
+     * CLOCK policy, the keys form a ring and the hand gives a second chance to the referenced ones.
+     */
+    public static class ClockPolicy implements EvictionPolicy {
+        /**
+         * The keys and their reference bits, starting from the hand.
+         */
+        private final LinkedHashMap<String, Boolean> keys = new LinkedHashMap<String, Boolean>();
+
+        public void onInsert(String key) {
+            keys.put(key, Boolean.FALSE);
+        }
+
+        public void onAccess(String key) {
+            // Replacing the value keeps the position on the ring
+            if (keys.containsKey(key)) {
+                keys.put(key, Boolean.TRUE);
+            }
+        }
+
+        public void onRemove(String key) {
+            keys.remove(key);
+        }
+
+        public String victim() {
+            while (!keys.isEmpty()) {
+                Iterator<Map.Entry<String, Boolean>> it = keys.entrySet().iterator();
+                Map.Entry<String, Boolean> hand = it.next();
+                String key = hand.getKey();
+                boolean referenced = hand.getValue();
+                it.remove();
+                if (!referenced) {
+                    return key;
+                }
+                // Second chance, move the key behind the hand
+                keys.put(key, Boolean.FALSE);
+            }
+            return null;
+        }
+
+        public void clear() {
+            keys.clear();
+        }
+    }
+
+    /**
+     * Window TinyLFU policy. New keys enter a small LRU window, and leave it for the main segmented
+     * LRU only if a frequency sketch says they are used more often than the main victim.
+     */
+    public static class TinyLfuPolicy implements EvictionPolicy {
+        /**
+         * The share of the keys kept in the window, in percent.
+         */
+        static final int WINDOW_PERCENT = 1;
+
+        /**
+         * The share of the main keys kept in the protected segment, in percent.
+         */
+        static final int PROTECTED_PERCENT = 80;
+
+        /**
+         * The recently inserted keys.
+         */
+        private final LinkedHashSet<String> window = new LinkedHashSet<String>();
+        /**
+         * The main keys accessed once since they left the window.
+         */
+        private final LinkedHashSet<String> probation = new LinkedHashSet<String>();
+        /**
+         * The main keys accessed again in probation.
+         */
+        private final LinkedHashSet<String> protectedKeys = new LinkedHashSet<String>();
+        /**
+         * The keys that lost the admission, to be evicted first.
+         */
+        private final LinkedHashSet<String> rejected = new LinkedHashSet<String>();
+        /**
+         * The estimated access frequencies.
+         */
+        private final FrequencySketch sketch;
+        /**
+         * The maximum number of keys of each segment.
+         */
+        private final int windowMax;
+        private final int mainMax;
+        private final int protectedMax;
+
+        /**
+         * Constructor of the policy.
+         *
+         * @param      maximumSize  The maximum number of entries of the cache, or an estimate of
+         *                          it when the cache is bounded by weight
+         */
+        public TinyLfuPolicy(int maximumSize) {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException("Maximum size cannot be negative!");
+            }
+            this.windowMax = Math.max(1, (int) ((long) maximumSize * WINDOW_PERCENT / 100));
+            this.mainMax = Math.max(0, maximumSize - windowMax);
+            this.protectedMax = (int) ((long) mainMax * PROTECTED_PERCENT / 100);
+            this.sketch = new FrequencySketch(maximumSize);
+        }
+
+        public void onInsert(String key) {
+            sketch.increment(key);
+            window.add(key);
+            if (window.size() > windowMax) {
+                admit(removeFirst(window));
+            }
+        }
+
+        public void onAccess(String key) {
+            sketch.increment(key);
+            if (window.remove(key)) {
+                window.add(key);
+            } else if (probation.remove(key)) {
+                protectedKeys.add(key);
+                if (protectedKeys.size() > protectedMax) {
+                    probation.add(removeFirst(protectedKeys));
+                }
+            } else if (protectedKeys.remove(key)) {
+                protectedKeys.add(key);
+            } else if (rejected.remove(key)) {
+                // Still in the cache and used again, give it another chance through the window
+                onInsert(key);
+            }
+        }
+
+        public void onRemove(String key) {
+            if (!window.remove(key) && !probation.remove(key) && !protectedKeys.remove(key)) {
+                rejected.remove(key);
+            }
+        }
+
+        public String victim() {
+            if (!rejected.isEmpty()) {
+                return removeFirst(rejected);
+            }
+            if (!probation.isEmpty()) {
+                return removeFirst(probation);
+            }
+            if (!protectedKeys.isEmpty()) {
+                return removeFirst(protectedKeys);
+            }
+            if (!window.isEmpty()) {
+                return removeFirst(window);
+            }
+            return null;
+        }
+
+        public void clear() {
+            window.clear();
+            probation.clear();
+            protectedKeys.clear();
+            rejected.clear();
+        }
+
+        /**
+         * Move a key out of the window, into the main segments if it beats their victim.
+         *
+         * @param      candidate  The oldest key of the window
+         */
+        private void admit(String candidate) {
+            if (probation.size() + protectedKeys.size() < mainMax) {
+                probation.add(candidate);
+                return;
+            }
+
+            LinkedHashSet<String> main = probation.isEmpty() ? protectedKeys : probation;
+            if (main.isEmpty()) {
+                rejected.add(candidate);
+                return;
+            }
+            String victim = main.iterator().next();
+            if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+                main.remove(victim);
+                rejected.add(victim);
+                probation.add(candidate);
+            } else {
+                rejected.add(candidate);
+            }
+        }
+
+        private static String removeFirst(LinkedHashSet<String> keys) {
+            Iterator<String> it = keys.iterator();
+            String key = it.next();
+            it.remove();
+            return key;
+        }
+    }
+
+    /**
+     * Count-Min sketch of 4-bit counters, halved periodically so that old accesses fade away.
+     */
+    static class FrequencySketch {
+        /**
+         * The seeds of the four hash functions.
+         */
+        static final int[] SEEDS = { 0x97cb3127, 0xb7d5e2c1, 0xd2e19a7f, 0x6fb5a1c3 };
+
+        /**
+         * The counters, 16 in each long.
+         */
+        private final long[] table;
+        /**
+         * The number of increments since the last halving.
+         */
+        private int additions;
+        /**
+         * The number of increments after which the counters are halved.
+         */
+        private final int sampleSize;
+
+        public FrequencySketch(int expectedSize) {
+            int size = 16;
+            while (size < expectedSize && size < (1 << 26)) {
+                size <<= 1;
+            }
+            this.table = new long[size];
+            this.sampleSize = 10 * size;
+        }
+
+        private int indexOf(int hash, int i) {
+            int h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 16;
+            return h & (table.length - 1);
+        }
+
+        private static int spread(String key) {
+            int h = key.hashCode() * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Get the estimated frequency of the key.
+         *
+         * @param      key   The key
+         *
+         * @return     The frequency, at most 15
+         */
+        public int frequency(String key) {
+            int hash = spread(key);
+            int res = 15;
+            for (int i = 0; i < 4; i++) {
+                int shift = ((hash >>> (i << 3)) & 15) << 2;
+                int count = (int) ((table[indexOf(hash, i)] >>> shift) & 15L);
+                res = Math.min(res, count);
+            }
+            return res;
+        }
+
+        /**
+         * Count one more access of the key.
+         *
+         * @param      key   The key
+         */
+        public void increment(String key) {
+            int hash = spread(key);
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int shift = ((hash >>> (i << 3)) & 15) << 2;
+                int idx = indexOf(hash, i);
+                if (((table[idx] >>> shift) & 15L) != 15L) {
+                    table[idx] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+    }
+
+    /**
+     * The Node tracking an entry known to the eviction policy.
+     */
+    static class Node {
+        public String value;
+        public int weight;
+
+        public Node(String val, int weight) {
+            this.value = val;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The Read Buffer of a stripe of threads, a lossy ring of accessed keys.
+     */
+    static class ReadBuffer {
+        public final AtomicReferenceArray<String> keys;
+        public final AtomicLong writeCount;
+        public final AtomicLong readCount;
+
+        public ReadBuffer() {
+            this.keys = new AtomicReferenceArray<String>(READ_BUFFER_SIZE);
+            this.writeCount = new AtomicLong();
+            this.readCount = new AtomicLong();
+        }
+    }
+
+    /**
+     * Instance Variable, the entries.
+     */
+    private final ThreadSafeHashMap map;
+
+    /**
+     * Instance Variable, the maximum total weight of the entries.
+     */
+    private final long maximumWeight;
+
+    /**
+     * Instance Variable, the weight of an entry.
+     */
+    private final ToIntBiFunction<String, String> weigher;
+
+    /**
+     * Instance Variable, the eviction policy.
+     */
+    private final EvictionPolicy policy;
+
+    /**
+     * Instance Variable, the lock guarding the policy and the nodes.
+     */
+    private final Lock evictionLock;
+
+    /**
+     * Instance Variable, the entries known to the policy, only used under the eviction lock.
+     */
+    private final Map<String, Node> nodes;
+
+    /**
+     * Instance Variable, the total weight of the nodes, only written under the eviction lock.
+     */
+    private volatile long weightedSize;
+
+    /**
+     * Instance Variable, the buffers of accessed keys, one per stripe of threads.
+     */
+    private final ReadBuffer[] readBuffers;
+
+    /**
+     * Instance Variable, the keys written since the last drain.
+     */
+    private final ConcurrentLinkedQueue<String> writeBuffer;
+
+    /**
+     * Instance Variable, the number of keys in the write buffer.
+     */
+    private final AtomicInteger pendingWrites;
+
+    /**
+     * Instance Variable, the statistics.
+     */
+    private final LongAdder hitCount;
+    private final LongAdder missCount;
+    private final LongAdder evictionCount;
+
+    /**
+     * Constructor of the Thread Safe Cache bounded by the number of entries.
+     *
+     * @param      maximumSize  The maximum number of entries
+     * @param      policy       The eviction policy
+     */
+    ThreadSafeCache(long maximumSize, EvictionPolicy policy) {
+        this(maximumSize, null, policy);
+    }
+
+    /**
+     * Constructor of the Thread Safe Cache bounded by the weight of the entries.
+     *
+     * @param      maximumWeight  The maximum total weight of the entries
+     * @param      weigher        The weight of an entry, null to count the entries
+     * @param      policy         The eviction policy
+     */
+    ThreadSafeCache(long maximumWeight, ToIntBiFunction<String, String> weigher, EvictionPolicy policy) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("Maximum weight cannot be negative!");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy cannot be null!");
+        }
+
+        this.map = new ThreadSafeHashMap();
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.policy = policy;
+        this.evictionLock = new ReentrantLock();
+        this.nodes = new HashMap<String, Node>();
+        this.weightedSize = 0;
+        this.writeBuffer = new ConcurrentLinkedQueue<String>();
+        this.pendingWrites = new AtomicInteger();
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+        this.evictionCount = new LongAdder();
+
+        int stripes = 1;
+        while (stripes < 4 * Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    /**
+     * Get the value stored in the cache, and record the access.
+     *
+     * @param      key   The key
+     *
+     * @return     The String Value stored in the cache
+     */
+    public String get(String key) {
+        String res = map.get(key);
+        if (res == null) {
+            missCount.increment();
+            return null;
+        }
+
+        hitCount.increment();
+        recordRead(key);
+        return res;
+    }
+
+    /**
+     * Determines if the cache contains the key, without recording an access.
+     *
+     * @param      key   The key
+     *
+     * @return     True if contains key, False otherwise.
+     */
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Put the (key, value) pair into the cache, evicting other entries if it is full.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     *
+     * @return     Return the value inserted in the cache
+     */
+    public String put(String key, String value) {
+        String res = map.put(key, value);
+        recordWrite(key);
+        return res;
+    }
+
+    /**
+     * Remove the element with the given key from the cache.
+     *
+     * @param      key   The key
+     *
+     * @return     The String Value stored in the cache
+     */
+    public String remove(String key) {
+        String res = map.remove(key);
+        if (res != null) {
+            recordWrite(key);
+        }
+        return res;
+    }
+
+    /**
+     * Clear the cache.
+     */
+    public void clear() {
+        evictionLock.lock();
+        try {
+            map.clear();
+            nodes.clear();
+            policy.clear();
+            weightedSize = 0;
+            for (ReadBuffer buffer : readBuffers) {
+                for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                    buffer.keys.set(i, null);
+                }
+                buffer.readCount.set(buffer.writeCount.get());
+            }
+            // A put racing with the clear may be in the HashMap already, replay it instead of
+            // dropping it, or it would never be tracked and never evicted
+            drainWrites();
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of entries in the cache, which can briefly exceed the maximum until the
+     * pending writes are replayed.
+     *
+     * @return     The size of the cache.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Determines if the cache is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * Get the total weight of the entries known to the eviction policy.
+     *
+     * @return     The weighted size
+     */
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    /**
+     * Get the number of reads that found a value.
+     *
+     * @return     The hit count
+     */
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Get the number of reads that found no value.
+     *
+     * @return     The miss count
+     */
+    public long missCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Get the number of entries evicted.
+     *
+     * @return     The eviction count
+     */
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Replay the pending reads and writes and evict the entries above the maximum now.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            drainBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Record a read in the buffer of the current thread, dropping it if the buffer is full.
+     *
+     * @param      key   The key
+     */
+    private void recordRead(String key) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+        long writes = buffer.writeCount.get();
+        long pending = writes - buffer.readCount.get();
+        if (pending < READ_BUFFER_SIZE && buffer.writeCount.compareAndSet(writes, writes + 1)) {
+            buffer.keys.lazySet((int) writes & (READ_BUFFER_SIZE - 1), key);
+            pending++;
+        }
+        if (pending >= READ_BUFFER_SIZE) {
+            tryDrain();
+        }
+    }
+
+    /**
+     * Record a write, and wait for the eviction lock only if too many writes are pending.
+     *
+     * @param      key   The key
+     */
+    private void recordWrite(String key) {
+        writeBuffer.add(key);
+        if (pendingWrites.incrementAndGet() > WRITE_BUFFER_MAX) {
+            cleanUp();
+        } else {
+            tryDrain();
+        }
+    }
+
+    /**
+     * Replay the buffers if no other thread is doing it.
+     */
+    private void tryDrain() {
+        if (evictionLock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replay the writes and the reads into the policy and evict, the caller holds the eviction lock.
+     */
+    private void drainBuffers() {
+        drainWrites();
+
+        String key;
+        for (ReadBuffer buffer : readBuffers) {
+            long reads = buffer.readCount.get();
+            long writes = buffer.writeCount.get();
+            for (; reads < writes; reads++) {
+                int idx = (int) reads & (READ_BUFFER_SIZE - 1);
+                key = buffer.keys.get(idx);
+                if (key == null) {
+                    // The slot is claimed but not written yet
+                    break;
+                }
+                buffer.keys.lazySet(idx, null);
+                if (nodes.containsKey(key)) {
+                    policy.onAccess(key);
+                }
+            }
+            buffer.readCount.lazySet(reads);
+        }
+
+        evict();
+    }
+
+    /**
+     * Replay the pending writes, the caller holds the eviction lock.
+     */
+    private void drainWrites() {
+        String key;
+        while ((key = writeBuffer.poll()) != null) {
+            pendingWrites.decrementAndGet();
+            applyWrite(key);
+        }
+    }
+
+    /**
+     * Bring the node of a written key in line with the HashMap, the caller holds the eviction lock.
+     * Only the current value matters, so writes replayed out of order still end up consistent.
+     *
+     * @param      key   The key
+     */
+    private void applyWrite(String key) {
+        String value = map.get(key);
+        Node node = nodes.get(key);
+
+        if (value == null) {
+            if (node != null) {
+                nodes.remove(key);
+                weightedSize -= node.weight;
+                policy.onRemove(key);
+            }
+        } else if (node == null) {
+            node = new Node(value, weigh(key, value));
+            nodes.put(key, node);
+            weightedSize += node.weight;
+            policy.onInsert(key);
+        } else if (node.value != value) {
+            int weight = weigh(key, value);
+            weightedSize += weight - node.weight;
+            node.value = value;
+            node.weight = weight;
+            policy.onAccess(key);
+        }
+    }
+
+    /**
+     * Evict entries until the total weight is under the maximum, the caller holds the eviction lock.
+     */
+    private void evict() {
+        while (weightedSize > maximumWeight) {
+            String key = policy.victim();
+            if (key == null) {
+                return;
+            }
+            final Node node = nodes.remove(key);
+            if (node == null) {
+                continue;
+            }
+            weightedSize -= node.weight;
+
+            // Only remove the value the policy knows about, a newer one has its write pending
+            final boolean[] evicted = new boolean[1];
+            map.computeIfPresent(key, (k, v) -> {
+                if (v == node.value) {
+                    evicted[0] = true;
+                    return null;
+                }
+                return v;
+            });
+            if (evicted[0]) {
+                evictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Get the weight of an entry.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     *
+     * @return     The weight
+     */
+    private int weigh(String key, String value) {
+        if (weigher == null) {
+            return 1;
+        }
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight cannot be negative!");
+        }
+        return weight;
+    }
+
+    /**
+     * Display the cache.
+     */
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
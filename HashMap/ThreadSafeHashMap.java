@@ -1,59 +1,988 @@
 /**
  * Thread Safe HashMap, modified based on HashMap in Java Collections, the key cannot be null.
  *
+ * The map is split into segments chosen by the hash of the key, each segment guarded by its own
+ * lock, so that callers only block each other when their keys fall into the same segment.
+ * Lookups first read the segment optimistically, writing nothing, and only take the read lock if
+ * a writer changed the segment meanwhile.
+ *
+ * A segment grows incrementally: when it is full, a table twice as big is allocated and the
+ * buckets of the old table are moved over a few at a time by the following callers, so that no
+ * single operation pays for the whole rehash.
+ *
+ * Entries can be put with a time to live. An expired entry is invisible right away, and is
+ * physically removed later by a hierarchical timing wheel driven by the writers of its segment.
+ *
+ * The views and the stream are weakly consistent: they read one small range of buckets of one
+ * segment at a time, never pausing the writers of the whole map.
+ *
  * @author     Hao Wang
- * 
+ *
  * 05/2017
  */
 
-import java.util.Map;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class ThreadSafeHashMap {
 
+    /**
+     * The default number of segments.
+     */
+    static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * The maximum number of segments.
+     */
+    static final int MAX_SEGMENTS = 1 << 16;
+
+    /**
+     * The default number of buckets of a segment.
+     */
+    static final int DEFAULT_SEGMENT_CAPACITY = 16;
+
+    /**
+     * The maximum number of buckets of a segment.
+     */
+    static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    /**
+     * The load factor of a segment.
+     */
+    static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The number of buckets moved to the new table by each caller during a resize.
+     */
+    static final int MIGRATE_CHUNK = 16;
+
+    /**
+     * The number of buckets read at a time by a traversal.
+     */
+    static final int TRAVERSE_CHUNK = 64;
+
     /**
      * The Entry of the value stored in HashMap.
+     * It is only written under the lock of its segment, and the volatile value is enough to
+     * publish it to readers, so the entry carries no lock of its own.
      */
-    class Entry {
-        public String value;
-        public ReadWriteLock localLock;
+    static class Entry {
+        public final String key;
+        public final int hash;
+        public volatile String value;
+        public Entry next;
 
-        public Entry(String val) {
+        public Entry(String key, int hash, String val, Entry next) {
+            this.key = key;
+            this.hash = hash;
             this.value = val;
-            this.localLock = new ReentrantReadWriteLock();
+            this.next = next;
+        }
+
+        /**
+         * Determines if the entry has expired.
+         *
+         * @return     True if expired, False otherwise.
+         */
+        public boolean isExpired() {
+            return false;
+        }
+
+        /**
+         * Record an access to the entry.
+         */
+        public void touch() {
+        }
+
+        /**
+         * Record a write of a new value into the entry.
+         */
+        public void touchWrite() {
+        }
+    }
+
+    /**
+     * The Entry of a value with a time to live, kept apart so that other entries pay nothing.
+     */
+    static class TimedEntry extends Entry {
+        /**
+         * The System.nanoTime() at which the entry expires.
+         */
+        public volatile long expireAt;
+        /**
+         * The time to live restarted by each write.
+         */
+        public final long ttl;
+        /**
+         * The time to live restarted by each access, 0 if it only counts from the write.
+         */
+        public final long accessTtl;
+        /**
+         * The deadline of the timing wheel bucket holding the entry, 0 if none.
+         */
+        public long scheduledAt;
+
+        public TimedEntry(String key, int hash, String val, Entry next, long ttl, boolean afterAccess) {
+            super(key, hash, val, next);
+            this.expireAt = System.nanoTime() + ttl;
+            this.ttl = ttl;
+            this.accessTtl = afterAccess ? ttl : 0;
+            this.scheduledAt = 0;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return expireAt - System.nanoTime() <= 0;
+        }
+
+        @Override
+        public void touch() {
+            if (accessTtl != 0) {
+                expireAt = System.nanoTime() + accessTtl;
+            }
+        }
+
+        @Override
+        public void touchWrite() {
+            expireAt = System.nanoTime() + ttl;
+        }
+    }
+
+    /**
+     * The Timing Wheel of a segment, only used under the write lock of the segment.
+     * Each level has 64 buckets, each bucket 64 times as wide as one of the level below, starting
+     * from about a millisecond. An entry is scheduled into the level whose span covers its delay
+     * and moves down a level each time its bucket comes due, so an expiry costs amortized O(1).
+     * Entries whose deadline was pushed back by an access or a write, or which were replaced in the
+     * segment, are simply rescheduled or dropped when their bucket comes due.
+     */
+    static class TimingWheel {
+        static final int LEVELS = 5;
+        static final int BUCKET_BITS = 6;
+        static final int BUCKETS = 1 << BUCKET_BITS;
+        static final int TICK_BITS = 20;
+
+        /**
+         * The buckets of each level.
+         */
+        private final ArrayList<TimedEntry>[][] wheel;
+        /**
+         * The time the wheel has been advanced to.
+         */
+        private long time;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public TimingWheel(long now) {
+            this.wheel = new ArrayList[LEVELS][BUCKETS];
+            this.time = now;
+        }
+
+        /**
+         * Schedule the entry unless it is already scheduled no later than its deadline.
+         *
+         * @param      entry  The entry
+         */
+        public void schedule(TimedEntry entry) {
+            long deadline = entry.expireAt;
+            if (entry.scheduledAt != 0 && entry.scheduledAt - deadline <= 0) {
+                return;
+            }
+
+            long delay = Math.max(0, deadline - time);
+            int level = 0;
+            while (level < LEVELS - 1 && delay >= (1L << (TICK_BITS + BUCKET_BITS * (level + 1)))) {
+                level++;
+            }
+            int idx = (int) ((deadline >> (TICK_BITS + BUCKET_BITS * level)) & (BUCKETS - 1));
+            ArrayList<TimedEntry> bucket = wheel[level][idx];
+            if (bucket == null) {
+                bucket = new ArrayList<TimedEntry>();
+                wheel[level][idx] = bucket;
+            }
+            bucket.add(entry);
+            entry.scheduledAt = deadline == 0 ? 1 : deadline;
+        }
+
+        /**
+         * Advance the wheel, removing the expired entries of the buckets that came due.
+         *
+         * @param      now      The current System.nanoTime()
+         * @param      segment  The segment owning the wheel
+         */
+        public void advance(long now, Segment segment) {
+            long previous = time;
+            if (now - previous <= 0) {
+                return;
+            }
+            time = now;
+
+            for (int level = 0; level < LEVELS; level++) {
+                int shift = TICK_BITS + BUCKET_BITS * level;
+                long previousTicks = previous >> shift;
+                long delta = (now >> shift) - previousTicks;
+                if (delta <= 0) {
+                    break;
+                }
+
+                long buckets = Math.min(delta, BUCKETS);
+                for (long t = 0; t < buckets; t++) {
+                    int idx = (int) ((previousTicks + t) & (BUCKETS - 1));
+                    ArrayList<TimedEntry> bucket = wheel[level][idx];
+                    if (bucket == null) {
+                        continue;
+                    }
+                    wheel[level][idx] = null;
+                    for (TimedEntry entry : bucket) {
+                        entry.scheduledAt = 0;
+                        if (segment.lookup(entry.key, entry.hash) != entry) {
+                            continue;
+                        }
+                        if (entry.expireAt - now <= 0) {
+                            segment.delete(entry.key, entry.hash);
+                        } else {
+                            schedule(entry);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The Segment of the HashMap, a part of the map guarded by its own lock.
+     */
+    class Segment {
+        /**
+         * The buckets of the segment.
+         */
+        public Entry[] table;
+        /**
+         * The buckets being moved into the table during a resize, null otherwise.
+         */
+        public volatile Entry[] oldTable;
+        /**
+         * The buckets of the old table below this index have been moved.
+         */
+        public int migrateIndex;
+        /**
+         * The number of entries above which the segment is resized.
+         */
+        public int threshold;
+        /**
+         * The number of buckets the segment starts with.
+         */
+        public final int initialCapacity;
+        /**
+         * The local lock of the segment.
+         */
+        public StampedLock localLock;
+        /**
+         * The number of entries in the segment, only written under the write lock.
+         * Expired entries are counted until they are removed.
+         */
+        public volatile int count;
+        /**
+         * The timing wheel of the entries with a time to live, null until there is one.
+         */
+        public TimingWheel wheel;
+
+        public Segment(int capacity) {
+            this.initialCapacity = capacity;
+            this.table = new Entry[capacity];
+            this.oldTable = null;
+            this.migrateIndex = 0;
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+            this.localLock = new StampedLock();
+            this.count = 0;
+        }
+
+        /**
+         * Get the table holding the bucket of the hash, the old one if it is not moved yet.
+         *
+         * @param      hash  The hash of the key
+         *
+         * @return     The table
+         */
+        public Entry[] tableFor(int hash) {
+            Entry[] old = oldTable;
+            if (old != null && (hash & (old.length - 1)) >= migrateIndex) {
+                return old;
+            }
+            return table;
+        }
+
+        /**
+         * Find the entry of the key even if it has expired, the caller holds the lock.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     The entry, null if absent
+         */
+        public Entry lookup(String key, int hash) {
+            Entry[] tab = tableFor(hash);
+            for (Entry e = tab[hash & (tab.length - 1)]; e != null; e = e.next) {
+                if (e.hash == hash && key.equals(e.key)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Find the entry of the key even if it has expired, without the lock. The chains may be
+         * changed by a writer meanwhile, so the search gives up as soon as the stamp is no longer
+         * valid, and the result only holds if the caller validates the stamp afterwards.
+         *
+         * @param      key    The key
+         * @param      hash   The hash of the key
+         * @param      stamp  The stamp of the optimistic read
+         *
+         * @return     The entry, null if absent
+         */
+        public Entry lookupOptimistic(String key, int hash, long stamp) {
+            Entry[] tab = tableFor(hash);
+            for (Entry e = tab[hash & (tab.length - 1)]; e != null; e = e.next) {
+                if (!localLock.validate(stamp)) {
+                    return null;
+                }
+                if (e.hash == hash && key.equals(e.key)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Find the entry of the key even if it has expired, optimistically first and with the
+         * read lock only if a writer got in the way.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     The entry, null if absent
+         */
+        public Entry read(String key, int hash) {
+            long stamp = localLock.tryOptimisticRead();
+            if (stamp != 0) {
+                Entry e = lookupOptimistic(key, hash, stamp);
+                if (localLock.validate(stamp)) {
+                    return e;
+                }
+            }
+
+            stamp = localLock.readLock();
+            try {
+                return lookup(key, hash);
+            } finally {
+                localLock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Find the entry of the key, the caller holds the lock.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     The entry, null if absent or expired
+         */
+        public Entry find(String key, int hash) {
+            Entry e = lookup(key, hash);
+            return e == null || e.isExpired() ? null : e;
+        }
+
+        /**
+         * Find the entry of the key and remove it if it has expired, the caller holds the write
+         * lock.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     The entry, null if absent or expired
+         */
+        public Entry findForWrite(String key, int hash) {
+            Entry e = lookup(key, hash);
+            if (e != null && e.isExpired()) {
+                delete(key, hash);
+                return null;
+            }
+            return e;
+        }
+
+        /**
+         * Insert an entry for an absent key, the caller holds the write lock.
+         *
+         * @param      key    The key
+         * @param      hash   The hash of the key
+         * @param      value  The value
+         */
+        public void insert(String key, int hash, String value) {
+            Entry[] tab = tableFor(hash);
+            int idx = hash & (tab.length - 1);
+            tab[idx] = new Entry(key, hash, value, tab[idx]);
+            count++;
+        }
+
+        /**
+         * Put the value of the key without a time to live, the caller holds the write lock.
+         *
+         * @param      key    The key
+         * @param      hash   The hash of the key
+         * @param      value  The value
+         */
+        public void putValue(String key, int hash, String value) {
+            Entry entry = findForWrite(key, hash);
+            if (entry != null && !(entry instanceof TimedEntry)) {
+                // Reuse the entry, the volatile write publishes the new value
+                entry.value = value;
+                return;
+            }
+            if (entry != null) {
+                delete(key, hash);
+            }
+            insert(key, hash, value);
+        }
+
+        /**
+         * Put the value of the key with a time to live, the caller holds the write lock.
+         *
+         * @param      key          The key
+         * @param      hash         The hash of the key
+         * @param      value        The value
+         * @param      ttl          The time to live in nanoseconds
+         * @param      afterAccess  True to restart the time to live on each access
+         */
+        public void putTimed(String key, int hash, String value, long ttl, boolean afterAccess) {
+            if (findForWrite(key, hash) != null) {
+                delete(key, hash);
+            }
+            Entry[] tab = tableFor(hash);
+            int idx = hash & (tab.length - 1);
+            TimedEntry entry = new TimedEntry(key, hash, value, tab[idx], ttl, afterAccess);
+            tab[idx] = entry;
+            count++;
+
+            if (wheel == null) {
+                wheel = new TimingWheel(System.nanoTime());
+            }
+            wheel.schedule(entry);
+        }
+
+        /**
+         * Unlink the entry of the key, the caller holds the write lock.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     The removed entry, null if absent
+         */
+        public Entry delete(String key, int hash) {
+            Entry[] tab = tableFor(hash);
+            int idx = hash & (tab.length - 1);
+            Entry prev = null;
+            for (Entry e = tab[idx]; e != null; prev = e, e = e.next) {
+                if (e.hash == hash && key.equals(e.key)) {
+                    if (prev == null) {
+                        tab[idx] = e.next;
+                    } else {
+                        prev.next = e.next;
+                    }
+                    count--;
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Move a chunk of the old buckets and start a resize if the segment is full, the caller
+         * holds the write lock and is about to update the segment.
+         */
+        public void beforeWrite() {
+            if (wheel != null) {
+                wheel.advance(System.nanoTime(), this);
+            }
+            if (oldTable != null) {
+                migrate(MIGRATE_CHUNK);
+            }
+            if (oldTable == null && count >= threshold && table.length < MAX_SEGMENT_CAPACITY) {
+                oldTable = table;
+                table = new Entry[table.length << 1];
+                threshold = (int) (table.length * LOAD_FACTOR);
+                migrateIndex = 0;
+            }
+        }
+
+        /**
+         * Move the next buckets of the old table into the table, the caller holds the write lock.
+         *
+         * @param      buckets  The maximum number of buckets to move
+         */
+        public void migrate(int buckets) {
+            Entry[] old = oldTable;
+            if (old == null) {
+                return;
+            }
+
+            int end = buckets >= old.length - migrateIndex ? old.length : migrateIndex + buckets;
+            Entry[] tab = table;
+            for (int i = migrateIndex; i < end; i++) {
+                Entry e = old[i];
+                while (e != null) {
+                    Entry next = e.next;
+                    int idx = e.hash & (tab.length - 1);
+                    e.next = tab[idx];
+                    tab[idx] = e;
+                    e = next;
+                }
+                old[i] = null;
+            }
+
+            migrateIndex = end;
+            if (end == old.length) {
+                oldTable = null;
+                migrateIndex = 0;
+            }
+        }
+
+        /**
+         * Move a chunk of the old buckets if the write lock is free, so readers also help the
+         * resize without ever waiting for it.
+         */
+        public void tryMigrate() {
+            if (oldTable == null) {
+                return;
+            }
+            long stamp = localLock.tryWriteLock();
+            if (stamp != 0) {
+                try {
+                    migrate(MIGRATE_CHUNK);
+                } finally {
+                    localLock.unlockWrite(stamp);
+                }
+            }
+        }
+
+        /**
+         * Advance the timing wheel if the write lock is free, called by readers that ran into an
+         * expired entry.
+         */
+        public void tryExpire() {
+            if (wheel == null) {
+                return;
+            }
+            long stamp = localLock.tryWriteLock();
+            if (stamp != 0) {
+                try {
+                    wheel.advance(System.nanoTime(), this);
+                } finally {
+                    localLock.unlockWrite(stamp);
+                }
+            }
+        }
+
+        /**
+         * Drop all the entries, the caller holds the write lock.
+         */
+        public void reset() {
+            table = new Entry[initialCapacity];
+            oldTable = null;
+            migrateIndex = 0;
+            threshold = (int) (initialCapacity * LOAD_FACTOR);
+            count = 0;
+            wheel = null;
+        }
+    }
+
+    /**
+     * The Spliterator of the entries, split by segments first and then by bucket ranges.
+     *
+     * The buckets of a segment are numbered against a span fixed when the traversal reaches the
+     * segment, so an entry always belongs to bucket (hash & (span - 1)) of the span whatever the
+     * table size is. A range of these buckets is read under the read lock from the table and the
+     * old table, so even a resize in the middle of a traversal returns every entry at most once,
+     * and returns every entry present during the whole traversal.
+     */
+    class EntrySpliterator implements Spliterator<Map.Entry<String, String>> {
+        /**
+         * The segments left, from segmentLo included to segmentHi excluded.
+         */
+        private int segmentLo;
+        private final int segmentHi;
+        /**
+         * The buckets left in segmentLo, against the span, 0 until the segment is reached.
+         */
+        private int bucketLo;
+        private int bucketHi;
+        private int span;
+        /**
+         * The entries read but not returned yet.
+         */
+        private String[] keys;
+        private String[] values;
+        private int index;
+        private int length;
+
+        public EntrySpliterator(int segmentLo, int segmentHi, int bucketLo, int bucketHi, int span) {
+            this.segmentLo = segmentLo;
+            this.segmentHi = segmentHi;
+            this.bucketLo = bucketLo;
+            this.bucketHi = bucketHi;
+            this.span = span;
+            this.keys = new String[TRAVERSE_CHUNK];
+            this.values = new String[TRAVERSE_CHUNK];
+            this.index = 0;
+            this.length = 0;
+        }
+
+        /**
+         * Read the next range of buckets that holds entries.
+         *
+         * @return     True if entries were read, False if the traversal is over.
+         */
+        public boolean advanceChunk() {
+            index = 0;
+            length = 0;
+            while (segmentLo < segmentHi) {
+                Segment segment = segments[segmentLo];
+                if (span == 0) {
+                    // Any power of two works as a span, the current table size keeps chunks even
+                    span = segment.table.length;
+                    bucketLo = 0;
+                    bucketHi = span;
+                }
+                if (bucketLo >= bucketHi) {
+                    segmentLo++;
+                    span = 0;
+                    continue;
+                }
+
+                int lo = bucketLo;
+                int hi = Math.min(bucketHi, lo + TRAVERSE_CHUNK);
+                bucketLo = hi;
+                long stamp = segment.localLock.readLock();
+                try {
+                    collect(segment.table, lo, hi);
+                    collect(segment.oldTable, lo, hi);
+                } finally {
+                    segment.localLock.unlockRead(stamp);
+                }
+                if (length > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Read the live entries of a range of buckets from a table, the caller holds the lock.
+         *
+         * @param      tab   The table, null for none
+         * @param      lo    The first bucket against the span
+         * @param      hi    The bucket after the last one against the span
+         */
+        private void collect(Entry[] tab, int lo, int hi) {
+            if (tab == null) {
+                return;
+            }
+
+            if (tab.length >= span) {
+                // A bucket of the span is split into one bucket per span of the table
+                for (int base = 0; base < tab.length; base += span) {
+                    for (int i = lo; i < hi; i++) {
+                        for (Entry e = tab[base + i]; e != null; e = e.next) {
+                            add(e);
+                        }
+                    }
+                }
+            } else {
+                // The table shrank after a clear, keep the entries of the range from the buckets
+                // the range folds onto
+                int buckets = Math.min(hi - lo, tab.length);
+                for (int k = 0; k < buckets; k++) {
+                    for (Entry e = tab[(lo + k) & (tab.length - 1)]; e != null; e = e.next) {
+                        int bucket = e.hash & (span - 1);
+                        if (bucket >= lo && bucket < hi) {
+                            add(e);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void add(Entry e) {
+            if (e.isExpired()) {
+                return;
+            }
+            if (length == keys.length) {
+                keys = Arrays.copyOf(keys, length << 1);
+                values = Arrays.copyOf(values, length << 1);
+            }
+            keys[length] = e.key;
+            values[length] = e.value;
+            length++;
+        }
+
+        /**
+         * Give the remaining entries to the action, without creating Map.Entry objects.
+         *
+         * @param      action  The action
+         */
+        public void forEachPair(BiConsumer<String, String> action) {
+            do {
+                while (index < length) {
+                    String key = keys[index];
+                    String value = values[index];
+                    keys[index] = null;
+                    values[index] = null;
+                    index++;
+                    action.accept(key, value);
+                }
+            } while (advanceChunk());
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<String, String>> action) {
+            if (action == null) {
+                throw new IllegalArgumentException("Action cannot be null!");
+            }
+            if (index >= length && !advanceChunk()) {
+                return false;
+            }
+            action.accept(new AbstractMap.SimpleImmutableEntry<String, String>(keys[index], values[index]));
+            keys[index] = null;
+            values[index] = null;
+            index++;
+            return true;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<String, String>> trySplit() {
+            // Hand over whole segments while there are several left, this one keeps the upper part
+            if (segmentHi - segmentLo > 1) {
+                int mid = (segmentLo + 1 + segmentHi) >>> 1;
+                EntrySpliterator res = new EntrySpliterator(segmentLo, mid, bucketLo, bucketHi, span);
+                res.keys = keys;
+                res.values = values;
+                res.index = index;
+                res.length = length;
+                keys = new String[TRAVERSE_CHUNK];
+                values = new String[TRAVERSE_CHUNK];
+                index = 0;
+                length = 0;
+                segmentLo = mid;
+                bucketLo = 0;
+                bucketHi = 0;
+                span = 0;
+                return res;
+            }
+
+            // Then halves of the bucket range of the last segment
+            if (segmentLo >= segmentHi) {
+                return null;
+            }
+            if (span == 0) {
+                span = segments[segmentLo].table.length;
+                bucketLo = 0;
+                bucketHi = span;
+            }
+            if (bucketHi - bucketLo < 2 * TRAVERSE_CHUNK) {
+                return null;
+            }
+            int mid = (bucketLo + bucketHi) >>> 1;
+            EntrySpliterator res = new EntrySpliterator(segmentLo, segmentLo + 1, mid, bucketHi, span);
+            bucketHi = mid;
+            return res;
+        }
+
+        @Override
+        public long estimateSize() {
+            long res = length - index;
+            for (int i = segmentLo; i < segmentHi; i++) {
+                res += segments[i].count;
+            }
+            return res;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL;
         }
     }
 
     /**
-     * Instance Variable, the global hashmap.
+     * Instance Variable, the segments of the hashmap.
+     */
+    private final Segment[] segments;
+
+    /**
+     * Instance Variable, the shift used to choose the segment from the hash of the key.
      */
-    private Map<String, Entry> map;
+    private final int segmentShift;
 
     /**
-     * Instance Variable, the global lock.
+     * Instance Variable, the mask used to choose the segment from the hash of the key.
      */
-    private ReadWriteLock glocalLock;
+    private final int segmentMask;
 
     /**
      * Constructor of the Thread Safe HashMap
      */
     ThreadSafeHashMap() {
-        this.map = new HashMap<String, Entry>();
-        this.glocalLock = new ReentrantReadWriteLock();
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructor of the Thread Safe HashMap
+     *
+     * @param      concurrencyLevel  The estimated number of concurrently updating threads,
+     *                               rounded up to a power of two to get the number of segments
+     */
+    ThreadSafeHashMap(int concurrencyLevel) {
+        this(0, concurrencyLevel);
+    }
+
+    /**
+     * Constructor of the Thread Safe HashMap, pre-sized so that the expected number of entries
+     * can be loaded without any resize.
+     *
+     * @param      initialCapacity   The expected number of entries
+     * @param      concurrencyLevel  The estimated number of concurrently updating threads,
+     *                               rounded up to a power of two to get the number of segments
+     */
+    ThreadSafeHashMap(int initialCapacity, int concurrencyLevel) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Initial capacity cannot be negative!");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("Concurrency level has to be positive!");
+        }
+        if (concurrencyLevel > MAX_SEGMENTS) {
+            concurrencyLevel = MAX_SEGMENTS;
+        }
+
+        int shift = 0;
+        int size = 1;
+        while (size < concurrencyLevel) {
+            shift++;
+            size <<= 1;
+        }
+        this.segmentShift = 32 - shift;
+        this.segmentMask = size - 1;
+
+        // Enough buckets per segment to stay under the load factor
+        long perSegment = ((long) initialCapacity + size - 1) / size;
+        long needed = (long) Math.ceil(perSegment / (double) LOAD_FACTOR) + 1;
+        int capacity = DEFAULT_SEGMENT_CAPACITY;
+        while (capacity < needed && capacity < MAX_SEGMENT_CAPACITY) {
+            capacity <<= 1;
+        }
+
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Spread the hash code of the key so that the high bits also take part in the segment choice.
+     *
+     * @param      key   The key
+     *
+     * @return     The spread hash
+     */
+    static int hash(String key) {
+        int h = key.hashCode();
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Get the index of the segment that the hash belongs to.
+     *
+     * @param      hash  The hash of the key
+     *
+     * @return     The index of the segment of the key
+     */
+    private int segmentIndex(int hash) {
+        // A single segment has a shift of 32, which Java treats as 0, so the mask does the work
+        return (hash >>> segmentShift) & segmentMask;
+    }
+
+    /**
+     * Get the segment that the hash belongs to.
+     *
+     * @param      hash  The hash of the key
+     *
+     * @return     The segment of the key
+     */
+    private Segment segmentFor(int hash) {
+        return segments[segmentIndex(hash)];
+    }
+
+    /**
+     * Group the positions of the keys by the segment they belong to, so that a batch locks each
+     * segment only once.
+     *
+     * @param      hashes  The hashes of the keys
+     * @param      starts  Filled with where the keys of each segment start in the result, with one
+     *                     more slot than the number of segments for the end of the last one
+     *
+     * @return     The positions of the keys, grouped by segment
+     */
+    private int[] groupBySegment(int[] hashes, int[] starts) {
+        for (int h : hashes) {
+            starts[segmentIndex(h) + 1]++;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        int[] next = Arrays.copyOf(starts, segments.length);
+        int[] order = new int[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            order[next[segmentIndex(hashes[i])]++] = i;
+        }
+        return order;
     }
 
     /**
      * Clear the old HashMap and create the new one.
+     * Segments are cleared one by one, so the map is never locked as a whole.
      */
     public void clear() {
-        try {
-            glocalLock.writeLock().lock();
-            map = new HashMap<String, Entry>();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            glocalLock.writeLock().unlock();
+        for (Segment segment : segments) {
+            long stamp = segment.localLock.writeLock();
+            try {
+                segment.reset();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                segment.localLock.unlockWrite(stamp);
+            }
         }
     }
 
@@ -69,17 +998,11 @@ public class ThreadSafeHashMap {
             throw new IllegalArgumentException("Key cannot be null!");
         }
 
-        boolean res = false;
-
-        try {
-            glocalLock.readLock().lock();
-            res = map.containsKey(key);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            glocalLock.readLock().unlock();
-        }
-        return res;
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        Entry entry = segment.read(key, hash);
+        segment.tryMigrate();
+        return entry != null && !entry.isExpired();
     }
 
     /**
@@ -94,22 +1017,20 @@ public class ThreadSafeHashMap {
             throw new IllegalArgumentException("Key cannot be null!");
         }
 
-        Entry entry = null;
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
         String res = null;
 
-        try {
-            glocalLock.readLock().lock();
-            entry = map.get(key);
-            entry.localLock.readLock().lock();
-            res = entry.value;
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (entry != null) {
-                entry.localLock.readLock().unlock();
+        Entry entry = segment.read(key, hash);
+        if (entry != null) {
+            if (entry.isExpired()) {
+                segment.tryExpire();
+            } else {
+                entry.touch();
+                res = entry.value;
             }
-            glocalLock.readLock().unlock();
         }
+        segment.tryMigrate();
         return res;
     }
 
@@ -129,117 +1050,653 @@ public class ThreadSafeHashMap {
             throw new IllegalArgumentException("Value cannot be null!");
         }
 
-        Entry entry = new Entry(value);
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
         String res = null;
+        long stamp = segment.localLock.writeLock();
         try {
-            glocalLock.writeLock().lock();
-            entry.localLock.writeLock().lock();
-            map.put(key, entry);
+            segment.beforeWrite();
+            segment.putValue(key, hash, value);
             res = value;
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            entry.localLock.writeLock().unlock();
-            glocalLock.writeLock().unlock();
+            segment.localLock.unlockWrite(stamp);
         }
         return res;
     }
 
     /**
-     * Determines if the Linked List is empty.
+     * Put the (key, value) pair into HashMap, expiring after the given time since the write.
      *
-     * @return     True if empty, False otherwise.
+     * @param      key    The key
+     * @param      value  The value
+     * @param      ttl    The time to live
+     * @param      unit   The unit of the time to live
+     *
+     * @return     Return the value inserted in the HashMap
      */
-    public boolean isEmpty() {
-        boolean res = false;
+    public String put(String key, String value, long ttl, TimeUnit unit) {
+        return putTimed(key, value, ttl, unit, false);
+    }
+
+    /**
+     * Put the (key, value) pair into HashMap, expiring after the given time since the last access.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     * @param      ttl    The time to live, restarted by each access
+     * @param      unit   The unit of the time to live
+     *
+     * @return     Return the value inserted in the HashMap
+     */
+    public String putExpireAfterAccess(String key, String value, long ttl, TimeUnit unit) {
+        return putTimed(key, value, ttl, unit, true);
+    }
 
+    private String putTimed(String key, String value, long ttl, TimeUnit unit, boolean afterAccess) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+        if (ttl <= 0 || unit == null) {
+            throw new IllegalArgumentException("Time to live has to be positive!");
+        }
+
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        String res = null;
+        long stamp = segment.localLock.writeLock();
         try {
-            glocalLock.readLock().lock();
-            res = map.isEmpty();
+            segment.beforeWrite();
+            segment.putTimed(key, hash, value, unit.toNanos(ttl), afterAccess);
+            res = value;
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            glocalLock.readLock().unlock();
+            segment.localLock.unlockWrite(stamp);
         }
         return res;
     }
 
     /**
-     * Remove the element with the given key from the HashMap.
+     * Remove the expired entries whose timing wheel bucket came due, one segment at a time.
+     * Writers already do this for their segment, so only maps without writes need to call it.
+     */
+    public void cleanUp() {
+        for (Segment segment : segments) {
+            if (segment.wheel == null) {
+                continue;
+            }
+            long stamp = segment.localLock.writeLock();
+            try {
+                if (segment.wheel != null) {
+                    segment.wheel.advance(System.nanoTime(), segment);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                segment.localLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Put the (key, value) pair into HashMap if the key is absent.
      *
-     * @param      key   The key
+     * @param      key    The key
+     * @param      value  The value
      *
-     * @return     The String Value stored in the HashMap
+     * @return     The value already stored in the HashMap, null if the value was put
      */
-    public String remove(String key) {
+    public String putIfAbsent(String key, String value) {
         if (key == null) {
             throw new IllegalArgumentException("Key cannot be null!");
         }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
 
-        Entry entry = null;
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
         String res = null;
+        long stamp = segment.localLock.writeLock();
         try {
-            glocalLock.writeLock().lock();
-            entry = map.get(key);
+            segment.beforeWrite();
+            Entry entry = segment.findForWrite(key, hash);
             if (entry != null) {
                 res = entry.value;
-                entry.localLock.writeLock().lock();
-                map.remove(key);
+            } else {
+                segment.insert(key, hash, value);
             }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
+            segment.localLock.unlockWrite(stamp);
+        }
+        return res;
+    }
+
+    /**
+     * Replace the value of the key only if it is currently the expected one.
+     *
+     * @param      key       The key
+     * @param      expected  The expected value
+     * @param      value     The new value
+     *
+     * @return     True if replaced, False otherwise.
+     */
+    public boolean replace(String key, String expected, String value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (expected == null || value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        boolean res = false;
+        long stamp = segment.localLock.writeLock();
+        try {
+            segment.beforeWrite();
+            Entry entry = segment.findForWrite(key, hash);
+            if (entry != null && expected.equals(entry.value)) {
+                entry.touchWrite();
+                entry.value = value;
+                res = true;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            segment.localLock.unlockWrite(stamp);
+        }
+        return res;
+    }
+
+    /**
+     * Compute the value of an absent key and put it into HashMap, atomically.
+     * The function runs under the lock of the segment, which is not reentrant, so it must be
+     * short and must not access this HashMap.
+     *
+     * @param      key       The key
+     * @param      function  The function computing the value from the key, returning null to put
+     *                       nothing
+     *
+     * @return     The value stored in the HashMap, null if none
+     */
+    public String computeIfAbsent(String key, Function<String, String> function) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (function == null) {
+            throw new IllegalArgumentException("Function cannot be null!");
+        }
+
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        // Exceptions of the function are left to the caller
+        long stamp = segment.localLock.writeLock();
+        try {
+            segment.beforeWrite();
+            Entry entry = segment.findForWrite(key, hash);
             if (entry != null) {
-                entry.localLock.writeLock().unlock();
+                entry.touch();
+                return entry.value;
+            }
+            String value = function.apply(key);
+            if (value != null) {
+                segment.insert(key, hash, value);
             }
-            glocalLock.writeLock().unlock();
+            return value;
+        } finally {
+            segment.localLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Compute the new value of a present key, atomically.
+     * The function runs under the lock of the segment, which is not reentrant, so it must be
+     * short and must not access this HashMap.
+     *
+     * @param      key       The key
+     * @param      function  The function computing the new value from the key and the old value,
+     *                       returning null to remove the key
+     *
+     * @return     The new value stored in the HashMap, null if none
+     */
+    public String computeIfPresent(String key, BiFunction<String, String, String> function) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (function == null) {
+            throw new IllegalArgumentException("Function cannot be null!");
+        }
+
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        // Exceptions of the function are left to the caller
+        long stamp = segment.localLock.writeLock();
+        try {
+            segment.beforeWrite();
+            Entry entry = segment.findForWrite(key, hash);
+            if (entry == null) {
+                return null;
+            }
+            String value = function.apply(key, entry.value);
+            if (value != null) {
+                entry.touchWrite();
+                entry.value = value;
+            } else {
+                segment.delete(key, hash);
+            }
+            return value;
+        } finally {
+            segment.localLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Put the value if the key is absent, otherwise merge it with the old value, atomically.
+     * The function runs under the lock of the segment, which is not reentrant, so it must be
+     * short and must not access this HashMap.
+     *
+     * @param      key       The key
+     * @param      value     The value
+     * @param      function  The function merging the old value with the value, returning null to
+     *                       remove the key
+     *
+     * @return     The new value stored in the HashMap, null if none
+     */
+    public String merge(String key, String value, BiFunction<String, String, String> function) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null!");
+        }
+        if (function == null) {
+            throw new IllegalArgumentException("Function cannot be null!");
+        }
+
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        // Exceptions of the function are left to the caller
+        long stamp = segment.localLock.writeLock();
+        try {
+            segment.beforeWrite();
+            Entry entry = segment.findForWrite(key, hash);
+            if (entry == null) {
+                segment.insert(key, hash, value);
+                return value;
+            }
+            String merged = function.apply(entry.value, value);
+            if (merged != null) {
+                entry.touchWrite();
+                entry.value = merged;
+            } else {
+                segment.delete(key, hash);
+            }
+            return merged;
+        } finally {
+            segment.localLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Put all the (key, value) pairs into HashMap, taking the lock of each segment once.
+     * The pairs of a segment are put atomically, but different segments are updated one by one.
+     *
+     * @param      pairs  The (key, value) pairs
+     */
+    public void putAll(Map<String, String> pairs) {
+        if (pairs == null) {
+            throw new IllegalArgumentException("Map cannot be null!");
+        }
+
+        int n = pairs.size();
+        String[] keys = new String[n];
+        String[] values = new String[n];
+        int[] hashes = new int[n];
+        int i = 0;
+        for (Map.Entry<String, String> pair : pairs.entrySet()) {
+            if (pair.getKey() == null) {
+                throw new IllegalArgumentException("Key cannot be null!");
+            }
+            if (pair.getValue() == null) {
+                throw new IllegalArgumentException("Value cannot be null!");
+            }
+            keys[i] = pair.getKey();
+            values[i] = pair.getValue();
+            hashes[i] = hash(keys[i]);
+            i++;
+        }
+
+        int[] starts = new int[segments.length + 1];
+        int[] order = groupBySegment(hashes, starts);
+        for (int s = 0; s < segments.length; s++) {
+            if (starts[s] == starts[s + 1]) {
+                continue;
+            }
+
+            Segment segment = segments[s];
+            long stamp = segment.localLock.writeLock();
+            try {
+                for (int j = starts[s]; j < starts[s + 1]; j++) {
+                    int pos = order[j];
+                    segment.beforeWrite();
+                    segment.putValue(keys[pos], hashes[pos], values[pos]);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                segment.localLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Get the values of all the keys, taking the lock of each segment once.
+     * The keys of a segment are read atomically, but different segments are read one by one.
+     *
+     * @param      keys  The keys
+     *
+     * @return     The (key, value) pairs of the keys present in the HashMap
+     */
+    public Map<String, String> getAll(Collection<String> keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null!");
+        }
+
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        int[] hashes = new int[keyArray.length];
+        for (int i = 0; i < keyArray.length; i++) {
+            if (keyArray[i] == null) {
+                throw new IllegalArgumentException("Key cannot be null!");
+            }
+            hashes[i] = hash(keyArray[i]);
+        }
+
+        Map<String, String> res = new HashMap<String, String>();
+        int[] starts = new int[segments.length + 1];
+        int[] order = groupBySegment(hashes, starts);
+        for (int s = 0; s < segments.length; s++) {
+            if (starts[s] == starts[s + 1]) {
+                continue;
+            }
+
+            Segment segment = segments[s];
+            long stamp = segment.localLock.readLock();
+            try {
+                for (int j = starts[s]; j < starts[s + 1]; j++) {
+                    int pos = order[j];
+                    Entry entry = segment.find(keyArray[pos], hashes[pos]);
+                    if (entry != null) {
+                        entry.touch();
+                        res.put(keyArray[pos], entry.value);
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                segment.localLock.unlockRead(stamp);
+            }
+            segment.tryMigrate();
         }
         return res;
     }
 
     /**
-     * Get the size of the Linked List.
+     * Remove all the keys from the HashMap, taking the lock of each segment once.
+     * The keys of a segment are removed atomically, but different segments are updated one by one.
+     *
+     * @param      keys  The keys
      *
-     * @return     The size of the Linked List.
+     * @return     The (key, value) pairs removed from the HashMap
      */
-    public int size() {
-        int res = 0;
+    public Map<String, String> removeAll(Collection<String> keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null!");
+        }
+
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        int[] hashes = new int[keyArray.length];
+        for (int i = 0; i < keyArray.length; i++) {
+            if (keyArray[i] == null) {
+                throw new IllegalArgumentException("Key cannot be null!");
+            }
+            hashes[i] = hash(keyArray[i]);
+        }
 
+        Map<String, String> res = new HashMap<String, String>();
+        int[] starts = new int[segments.length + 1];
+        int[] order = groupBySegment(hashes, starts);
+        for (int s = 0; s < segments.length; s++) {
+            if (starts[s] == starts[s + 1]) {
+                continue;
+            }
+
+            Segment segment = segments[s];
+            long stamp = segment.localLock.writeLock();
+            try {
+                for (int j = starts[s]; j < starts[s + 1]; j++) {
+                    int pos = order[j];
+                    segment.beforeWrite();
+                    Entry entry = segment.delete(keyArray[pos], hashes[pos]);
+                    if (entry != null && !entry.isExpired()) {
+                        res.put(keyArray[pos], entry.value);
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                segment.localLock.unlockWrite(stamp);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Determines if the HashMap is empty, without locking any segment.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the element with the given key from the HashMap.
+     *
+     * @param      key   The key
+     *
+     * @return     The String Value stored in the HashMap
+     */
+    public String remove(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null!");
+        }
+
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        String res = null;
+        long stamp = segment.localLock.writeLock();
         try {
-            glocalLock.readLock().lock();
-            res = map.size();
+            segment.beforeWrite();
+            Entry entry = segment.delete(key, hash);
+            if (entry != null && !entry.isExpired()) {
+                res = entry.value;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            glocalLock.readLock().unlock();
+            segment.localLock.unlockWrite(stamp);
         }
-        
         return res;
     }
 
+    /**
+     * Get the size of the HashMap, summing the counts of the segments without locking them.
+     * Expired entries are counted until the timing wheel removes them.
+     *
+     * @return     The size of the HashMap.
+     */
+    public int size() {
+        long res = 0;
+        for (Segment segment : segments) {
+            res += segment.count;
+        }
+        return res > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) res;
+    }
+
+    /**
+     * Give every (key, value) pair of the HashMap to the action, weakly consistent.
+     * Only a range of buckets of one segment is locked at a time, and the action runs outside
+     * any lock.
+     *
+     * @param      action  The action
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        if (action == null) {
+            throw new IllegalArgumentException("Action cannot be null!");
+        }
+        new EntrySpliterator(0, segments.length, 0, 0, 0).forEachPair(action);
+    }
+
+    /**
+     * Get a weakly consistent stream of the entries, which can be made parallel.
+     *
+     * @return     The stream of the entries
+     */
+    public Stream<Map.Entry<String, String>> entryStream() {
+        return StreamSupport.stream(new EntrySpliterator(0, segments.length, 0, 0, 0), false);
+    }
+
+    /**
+     * Get a weakly consistent view of the entries.
+     *
+     * @return     The entries
+     */
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return Spliterators.iterator(spliterator());
+            }
+
+            @Override
+            public Spliterator<Map.Entry<String, String>> spliterator() {
+                return new EntrySpliterator(0, segments.length, 0, 0, 0);
+            }
+
+            @Override
+            public int size() {
+                return ThreadSafeHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                if (!(e.getKey() instanceof String)) {
+                    return false;
+                }
+                String value = get((String) e.getKey());
+                return value != null && value.equals(e.getValue());
+            }
+        };
+    }
+
+    /**
+     * Get a weakly consistent view of the keys, removing a key from it removes it from the HashMap.
+     *
+     * @return     The keys
+     */
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                final Iterator<Map.Entry<String, String>> it = entrySet().iterator();
+                return new Iterator<String>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public String next() {
+                        return it.next().getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ThreadSafeHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && containsKey((String) o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                return o instanceof String && ThreadSafeHashMap.this.remove((String) o) != null;
+            }
+        };
+    }
+
+    /**
+     * Get a weakly consistent view of the values.
+     *
+     * @return     The values
+     */
+    public Collection<String> values() {
+        return new AbstractCollection<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                final Iterator<Map.Entry<String, String>> it = entrySet().iterator();
+                return new Iterator<String>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public String next() {
+                        return it.next().getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ThreadSafeHashMap.this.size();
+            }
+        };
+    }
+
     /**
      * Display the HashMap.
      */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        try {
-            glocalLock.readLock().lock();
-            for (String key : map.keySet()) {
-                Entry entry = map.get(key);
-                entry.localLock.readLock().lock();
-                String value = entry.value;
-                entry.localLock.readLock().unlock();
+        final StringBuilder sb = new StringBuilder();
+        forEach(new BiConsumer<String, String>() {
+            public void accept(String key, String value) {
                 sb.append("[");
                 sb.append(key);
                 sb.append(", ");
+                sb.append(value);
                 sb.append("] ");
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            glocalLock.readLock().unlock();
-        }
+        });
         return sb.toString().trim();
     }
-}
\ No newline at end of file
+}
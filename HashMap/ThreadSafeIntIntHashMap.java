@@ -0,0 +1,611 @@
+/**
+ * Thread Safe HashMap from int keys to int values, specialized from the Thread Safe HashMap.
+ *
+ * The keys and values are stored in flat primitive arrays with open addressing and linear
+ * probing, so there is no boxing and no entry object, and a lookup allocates nothing. As in the
+ * Thread Safe HashMap, the map is split into segments guarded by their own lock, and lookups read
+ * the segment optimistically first.
+ *
+ * The key 0 marks a free slot, so it is stored aside in the segment it belongs to.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.concurrent.locks.*;
+
+public class ThreadSafeIntIntHashMap {
+
+    /**
+     * The default number of segments.
+     */
+    static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * The maximum number of segments.
+     */
+    static final int MAX_SEGMENTS = 1 << 16;
+
+    /**
+     * The default number of slots of a segment.
+     */
+    static final int DEFAULT_SEGMENT_CAPACITY = 16;
+
+    /**
+     * The maximum number of slots of a segment.
+     */
+    static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    /**
+     * The load factor of a segment, lower than the chained map since a probe gets longer fast.
+     */
+    static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * The action taken on the (key, value) pairs by forEach.
+     */
+    public interface IntIntConsumer {
+        void accept(int key, int value);
+    }
+
+    /**
+     * The Segment, an open addressing table with its own lock.
+     */
+    class Segment {
+        /**
+         * The keys, 0 for a free slot.
+         */
+        public int[] keys;
+        /**
+         * The values, at the same index as their keys.
+         */
+        public int[] values;
+        /**
+         * Whether the key 0 is in the segment, and its value.
+         */
+        public boolean hasZeroKey;
+        public int zeroValue;
+        /**
+         * The number of keys in the slots, the key 0 excluded.
+         */
+        public int used;
+        /**
+         * The number of keys over which the slots are doubled.
+         */
+        public int threshold;
+        /**
+         * The number of slots the segment starts with.
+         */
+        public final int initialCapacity;
+        /**
+         * The lock of the segment.
+         */
+        public final StampedLock localLock;
+        /**
+         * The number of mappings, the key 0 included, read without the lock.
+         */
+        public volatile int count;
+
+        public Segment(int capacity) {
+            this.initialCapacity = capacity;
+            this.localLock = new StampedLock();
+            reset();
+        }
+
+        /**
+         * Drop every mapping, the caller holds the write lock.
+         */
+        public void reset() {
+            keys = new int[initialCapacity];
+            values = new int[initialCapacity];
+            hasZeroKey = false;
+            zeroValue = 0;
+            used = 0;
+            threshold = (int) (initialCapacity * LOAD_FACTOR);
+            count = 0;
+        }
+
+        /**
+         * Find the slot of a key other than 0, the caller holds the lock.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     The slot, -1 if absent
+         */
+        public int indexOf(int key, int hash) {
+            int[] ks = keys;
+            int mask = ks.length - 1;
+            int i = hash & mask;
+            for (int n = 0; n <= mask; n++, i = (i + 1) & mask) {
+                int k = ks[i];
+                if (k == key) {
+                    return i;
+                }
+                if (k == 0) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Find the slot of a key other than 0 without the lock. The slots may be resized or
+         * shifted by a writer meanwhile, so the probe is bounded, and the result only holds if
+         * the caller validates the stamp afterwards.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     The slot, -1 if absent
+         */
+        public int indexOfOptimistic(int key, int hash) {
+            int[] ks = keys;
+            int mask = ks.length - 1;
+            int i = hash & mask;
+            for (int n = 0; n <= mask; n++, i = (i + 1) & mask) {
+                int k = ks[i];
+                if (k == key) {
+                    return i;
+                }
+                if (k == 0) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Get the value of the key, optimistically first and with the read lock only if a writer
+         * got in the way.
+         *
+         * @param      key           The key
+         * @param      hash          The hash of the key
+         * @param      defaultValue  The value returned if the key is absent
+         *
+         * @return     The value, defaultValue if absent
+         */
+        public int read(int key, int hash, int defaultValue) {
+            long stamp = localLock.tryOptimisticRead();
+            if (stamp != 0) {
+                int res = defaultValue;
+                if (key == 0) {
+                    if (hasZeroKey) {
+                        res = zeroValue;
+                    }
+                } else {
+                    int[] vs = values;
+                    int i = indexOfOptimistic(key, hash);
+                    if (i >= 0 && i < vs.length) {
+                        res = vs[i];
+                    }
+                }
+                if (localLock.validate(stamp)) {
+                    return res;
+                }
+            }
+
+            stamp = localLock.readLock();
+            try {
+                if (key == 0) {
+                    return hasZeroKey ? zeroValue : defaultValue;
+                }
+                int i = indexOf(key, hash);
+                return i < 0 ? defaultValue : values[i];
+            } finally {
+                localLock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Put the value of the key, the caller holds the write lock.
+         *
+         * @param      key    The key
+         * @param      hash   The hash of the key
+         * @param      value  The value
+         *
+         * @throws     IllegalStateException  If the key is new and the segment cannot grow any more
+         */
+        public void put(int key, int hash, int value) {
+            if (key == 0) {
+                if (!hasZeroKey) {
+                    hasZeroKey = true;
+                    count++;
+                }
+                zeroValue = value;
+                return;
+            }
+
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            if (used >= threshold && keys.length >= MAX_SEGMENT_CAPACITY) {
+                // The slots cannot grow any more, the last empty ones end the probes
+                throw new IllegalStateException("Segment is full!");
+            }
+            keys[i] = key;
+            values[i] = value;
+            used++;
+            count++;
+            if (used > threshold && keys.length < MAX_SEGMENT_CAPACITY) {
+                resize();
+            }
+        }
+
+        /**
+         * Remove the key, the caller holds the write lock. The keys after it in the probe are
+         * shifted back instead of leaving a tombstone, so the probes stay short.
+         *
+         * @param      key   The key
+         * @param      hash  The hash of the key
+         *
+         * @return     True if the key was present, False otherwise.
+         */
+        public boolean delete(int key, int hash) {
+            if (key == 0) {
+                if (!hasZeroKey) {
+                    return false;
+                }
+                hasZeroKey = false;
+                zeroValue = 0;
+                count--;
+                return true;
+            }
+
+            int i = indexOf(key, hash);
+            if (i < 0) {
+                return false;
+            }
+            int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                int k = keys[j];
+                if (k == 0) {
+                    break;
+                }
+                // Move the key into the hole unless its home slot lies cyclically in (i, j]
+                int home = hash(k) & mask;
+                if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+                    continue;
+                }
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+            keys[i] = 0;
+            values[i] = 0;
+            used--;
+            count--;
+            return true;
+        }
+
+        /**
+         * Move the keys into twice as many slots, the caller holds the write lock.
+         */
+        public void resize() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            int capacity = oldKeys.length << 1;
+            int[] ks = new int[capacity];
+            int[] vs = new int[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                int k = oldKeys[j];
+                if (k == 0) {
+                    continue;
+                }
+                int i = hash(k) & mask;
+                while (ks[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                ks[i] = k;
+                vs[i] = oldValues[j];
+            }
+            keys = ks;
+            values = vs;
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+    }
+
+    /**
+     * Instance Variable, the segments of the hashmap.
+     */
+    private final Segment[] segments;
+
+    /**
+     * Instance Variable, the shift used to choose the segment from the hash of the key.
+     */
+    private final int segmentShift;
+
+    /**
+     * Instance Variable, the mask used to choose the segment from the hash of the key.
+     */
+    private final int segmentMask;
+
+    /**
+     * Constructor of the Thread Safe Int Int HashMap
+     */
+    ThreadSafeIntIntHashMap() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructor of the Thread Safe Int Int HashMap
+     *
+     * @param      concurrencyLevel  The estimated number of concurrently updating threads,
+     *                               rounded up to a power of two to get the number of segments
+     */
+    ThreadSafeIntIntHashMap(int concurrencyLevel) {
+        this(0, concurrencyLevel);
+    }
+
+    /**
+     * Constructor of the Thread Safe Int Int HashMap, pre-sized so that the expected number of
+     * entries can be loaded without any resize.
+     *
+     * @param      initialCapacity   The expected number of entries
+     * @param      concurrencyLevel  The estimated number of concurrently updating threads,
+     *                               rounded up to a power of two to get the number of segments
+     */
+    ThreadSafeIntIntHashMap(int initialCapacity, int concurrencyLevel) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Initial capacity cannot be negative!");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("Concurrency level has to be positive!");
+        }
+        if (concurrencyLevel > MAX_SEGMENTS) {
+            concurrencyLevel = MAX_SEGMENTS;
+        }
+
+        int shift = 0;
+        int size = 1;
+        while (size < concurrencyLevel) {
+            shift++;
+            size <<= 1;
+        }
+        this.segmentShift = 32 - shift;
+        this.segmentMask = size - 1;
+
+        // Enough slots per segment to stay under the load factor
+        long perSegment = ((long) initialCapacity + size - 1) / size;
+        long needed = (long) Math.ceil(perSegment / (double) LOAD_FACTOR) + 1;
+        int capacity = DEFAULT_SEGMENT_CAPACITY;
+        while (capacity < needed && capacity < MAX_SEGMENT_CAPACITY) {
+            capacity <<= 1;
+        }
+
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Spread the key so that sequential keys land far apart, with the finalizer of MurmurHash3.
+     *
+     * @param      key   The key
+     *
+     * @return     The spread hash
+     */
+    static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Get the segment that the hash belongs to.
+     *
+     * @param      hash  The hash of the key
+     *
+     * @return     The segment of the key
+     */
+    private Segment segmentFor(int hash) {
+        // A single segment has a shift of 32, which Java treats as 0, so the mask does the work
+        return segments[(hash >>> segmentShift) & segmentMask];
+    }
+
+    /**
+     * Clear the HashMap, segment by segment.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.localLock.writeLock();
+            try {
+                segment.reset();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                segment.localLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Determines if the map contains the key.
+     *
+     * @param      key   The key
+     *
+     * @return     True if contains key, False otherwise.
+     */
+    public boolean containsKey(int key) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.localLock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean res = key == 0 ? segment.hasZeroKey : segment.indexOfOptimistic(key, hash) >= 0;
+            if (segment.localLock.validate(stamp)) {
+                return res;
+            }
+        }
+
+        stamp = segment.localLock.readLock();
+        try {
+            return key == 0 ? segment.hasZeroKey : segment.indexOf(key, hash) >= 0;
+        } finally {
+            segment.localLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get the value stored in the HashMap.
+     *
+     * @param      key   The key
+     *
+     * @return     The value, 0 if absent
+     */
+    public int get(int key) {
+        return getOrDefault(key, 0);
+    }
+
+    /**
+     * Get the value stored in the HashMap.
+     *
+     * @param      key           The key
+     * @param      defaultValue  The value returned if the key is absent
+     *
+     * @return     The value, defaultValue if absent
+     */
+    public int getOrDefault(int key, int defaultValue) {
+        int hash = hash(key);
+        return segmentFor(hash).read(key, hash, defaultValue);
+    }
+
+    /**
+     * Put the (key, value) pair into HashMap.
+     *
+     * @param      key    The key
+     * @param      value  The value
+     *
+     * @return     Return the value inserted in the HashMap
+     *
+     * @throws     IllegalStateException  If the key is new and its segment cannot grow any more
+     */
+    public int put(int key, int value) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.localLock.writeLock();
+        try {
+            segment.put(key, hash, value);
+        } finally {
+            segment.localLock.unlockWrite(stamp);
+        }
+        return value;
+    }
+
+    /**
+     * Remove the key from the HashMap.
+     *
+     * @param      key   The key
+     *
+     * @return     True if the key was present, False otherwise.
+     */
+    public boolean remove(int key) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        boolean res = false;
+        long stamp = segment.localLock.writeLock();
+        try {
+            res = segment.delete(key, hash);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            segment.localLock.unlockWrite(stamp);
+        }
+        return res;
+    }
+
+    /**
+     * Determines if the HashMap is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of (key, value) pairs, may be stale if writers run meanwhile.
+     *
+     * @return     The size
+     */
+    public int size() {
+        int res = 0;
+        for (Segment segment : segments) {
+            res += segment.count;
+        }
+        return res;
+    }
+
+    /**
+     * Give every (key, value) pair of the HashMap to the action, weakly consistent. Each segment
+     * is copied under its read lock, and the action runs outside any lock.
+     *
+     * @param      action  The action
+     */
+    public void forEach(IntIntConsumer action) {
+        if (action == null) {
+            throw new IllegalArgumentException("Action cannot be null!");
+        }
+
+        for (Segment segment : segments) {
+            int[] ks;
+            int[] vs;
+            boolean hasZeroKey;
+            int zeroValue;
+            long stamp = segment.localLock.readLock();
+            try {
+                ks = segment.keys.clone();
+                vs = segment.values.clone();
+                hasZeroKey = segment.hasZeroKey;
+                zeroValue = segment.zeroValue;
+            } finally {
+                segment.localLock.unlockRead(stamp);
+            }
+
+            if (hasZeroKey) {
+                action.accept(0, zeroValue);
+            }
+            for (int i = 0; i < ks.length; i++) {
+                if (ks[i] != 0) {
+                    action.accept(ks[i], vs[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Display the HashMap.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        forEach(new IntIntConsumer() {
+            public void accept(int key, int value) {
+                sb.append("[");
+                sb.append(key);
+                sb.append(", ");
+                sb.append(value);
+                sb.append("] ");
+            }
+        });
+        return sb.toString().trim();
+    }
+}
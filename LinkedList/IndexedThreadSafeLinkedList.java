@@ -0,0 +1,420 @@
+/**
+ * Indexed Thread Safe Linked List, with the same API as the Thread Safe Linked List.
+ *
+ * The nodes form a skip list whose links store how many positions they skip, so an index is found
+ * in expected O(log n) steps instead of a walk from the head.
+ *
+ * Every operation starts at the head, where the index is checked against the size, and goes down
+ * the levels with lock coupling, taking the lock of the next node before releasing the current
+ * one. A writer only keeps the nodes whose links it has to splice, and fixes the widths of the
+ * other links on its way down, so writers behind it in the same region wait for it while writers
+ * in other regions go on. Readers use the read locks the same way.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.*;
+
+public class IndexedThreadSafeLinkedList {
+
+    /**
+     * The maximum number of levels.
+     */
+    static final int MAX_LEVEL = 16;
+
+    /**
+     * The Node of the Linked List.
+     */
+    class Node {
+        /**
+         * The value of the node.
+         */
+        public int value;
+        /**
+         * The local lock of the node.
+         */
+        public ReadWriteLock localLock;
+        /**
+         * Next node on each level.
+         */
+        public Node[] next;
+        /**
+         * The number of positions from this node to the next one on each level, 0 if there is no
+         * next node.
+         */
+        public int[] span;
+
+        public Node(int val, int level) {
+            this.value = val;
+            this.next = new Node[level];
+            this.span = new int[level];
+            this.localLock = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Instance Variable, the head of the Linked List, on every level.
+     */
+    private Node head;
+
+    /**
+     * Instance Variable, the number of nodes, only changed under the write lock of the head.
+     */
+    private volatile int count;
+
+    /**
+     * Constructor of the Indexed Thread Safe Linked List.
+     */
+    IndexedThreadSafeLinkedList() {
+        this.head = new Node(-1, MAX_LEVEL);
+        this.count = 0;
+    }
+
+    /**
+     * Choose the number of levels of a new node, each level a quarter as likely as the one below.
+     *
+     * @return     The number of levels
+     */
+    private static int randomLevel() {
+        int level = 1;
+        int bits = ThreadLocalRandom.current().nextInt();
+        while (level < MAX_LEVEL && (bits & 3) == 0) {
+            level++;
+            bits >>>= 2;
+        }
+        return level;
+    }
+
+    /**
+     * Unlock the write locks of the nodes kept by a writer, once each.
+     *
+     * @param      preds  The kept nodes by level, null for none
+     * @param      curr   The node the writer stands on, unlocked too unless it is kept
+     */
+    private static void unlock(Node[] preds, Node curr) {
+        Node last = null;
+        boolean currKept = false;
+        for (int l = preds.length - 1; l >= 0; l--) {
+            Node node = preds[l];
+            if (node == null || node == last) {
+                continue;
+            }
+            node.localLock.writeLock().unlock();
+            currKept |= node == curr;
+            last = node;
+        }
+        if (!currKept) {
+            curr.localLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Clear the linked list. Writers that passed the head already finish on the dropped nodes.
+     */
+    public void clear() {
+        head.localLock.writeLock().lock();
+        try {
+            for (int l = 0; l < MAX_LEVEL; l++) {
+                head.next[l] = null;
+                head.span[l] = 0;
+            }
+            count = 0;
+        } finally {
+            head.localLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Insert the Node into the list.
+     *
+     * @param      value  The value of the new node
+     * @param      index  The index of the new node
+     */
+    public void insert(int value, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+        insertAt(value, index);
+    }
+
+    /**
+     * Insert the Node into the list.
+     *
+     * @param      value  The value of the new node
+     * @param      index  The index of the new node, -1 for the last
+     */
+    private void insertAt(int value, int index) {
+        int level = randomLevel();
+        Node newNode = new Node(value, level);
+        Node[] preds = new Node[level];
+        int[] positions = new int[level];
+
+        Node node = head;
+        int pos = 0;
+        node.localLock.writeLock().lock();
+        try {
+            if (index > count) {
+                throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+            }
+            if (index < 0) {
+                index = count;
+            }
+            count++;
+
+            // The new node takes position index + 1, the head being position 0
+            int target = index + 1;
+            boolean kept = false;
+            for (int l = MAX_LEVEL - 1; l >= 0; l--) {
+                while (node.next[l] != null && pos + node.span[l] < target) {
+                    Node nextNode = node.next[l];
+                    nextNode.localLock.writeLock().lock();
+                    pos += node.span[l];
+                    if (!kept) {
+                        node.localLock.writeLock().unlock();
+                    }
+                    kept = false;
+                    node = nextNode;
+                }
+                if (l < level) {
+                    preds[l] = node;
+                    positions[l] = pos;
+                    kept = true;
+                } else if (node.next[l] != null) {
+                    // The new node falls inside this link
+                    node.span[l]++;
+                }
+            }
+
+            for (int l = 0; l < level; l++) {
+                Node pred = preds[l];
+                newNode.next[l] = pred.next[l];
+                if (pred.next[l] != null) {
+                    newNode.span[l] = positions[l] + pred.span[l] + 1 - target;
+                }
+                pred.next[l] = newNode;
+                pred.span[l] = target - positions[l];
+            }
+        } finally {
+            unlock(preds, node);
+        }
+    }
+
+    /**
+     * Inser the node to the first of the Linked List.
+     *
+     * @param      value  The value of the new Node
+     */
+    public void insertFirst(int value) {
+        insertAt(value, 0);
+    }
+
+    /**
+     * Insert the node to the last of the linked List.
+     *
+     * @param      value  The value of the new node
+     */
+    public void insertLast(int value) {
+        insertAt(value, -1);
+    }
+
+    /**
+     * Remove the node with the given index from the list.
+     *
+     * @param      index  The index of the node to be removed
+     */
+    public void remove(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+        removeAt(index);
+    }
+
+    /**
+     * Remove the node with the given index from the list.
+     *
+     * @param      index  The index of the node to be removed, -1 for the last
+     */
+    private void removeAt(int index) {
+        Node[] preds = new Node[MAX_LEVEL];
+        Node node = head;
+        int pos = 0;
+        node.localLock.writeLock().lock();
+        try {
+            if (index >= count) {
+                throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+            }
+            if (index < 0) {
+                index = count - 1;
+            }
+            count--;
+
+            int target = index + 1;
+            boolean kept = false;
+            for (int l = MAX_LEVEL - 1; l >= 0; l--) {
+                while (node.next[l] != null && pos + node.span[l] < target) {
+                    Node nextNode = node.next[l];
+                    nextNode.localLock.writeLock().lock();
+                    pos += node.span[l];
+                    if (!kept) {
+                        node.localLock.writeLock().unlock();
+                    }
+                    kept = false;
+                    node = nextNode;
+                }
+                if (node.next[l] == null) {
+                    continue;
+                }
+                if (pos + node.span[l] == target) {
+                    // The next node is the victim, keep this one to splice it out
+                    preds[l] = node;
+                    kept = true;
+                } else {
+                    // The victim falls inside this link
+                    node.span[l]--;
+                }
+            }
+
+            // Lock the victim last, so that the readers on it leave first
+            Node victim = preds[0].next[0];
+            victim.localLock.writeLock().lock();
+            try {
+                for (int l = 0; l < victim.next.length; l++) {
+                    Node pred = preds[l];
+                    pred.next[l] = victim.next[l];
+                    pred.span[l] = victim.next[l] == null ? 0 : pred.span[l] + victim.span[l] - 1;
+                }
+            } finally {
+                victim.localLock.writeLock().unlock();
+            }
+        } finally {
+            unlock(preds, node);
+        }
+    }
+
+    /**
+     * Remove the first node from the list.
+     */
+    public void removeFirst() {
+        removeAt(0);
+    }
+
+    /**
+     * Remove the last node from the list.
+     */
+    public void removeLast() {
+        removeAt(-1);
+    }
+
+    /**
+     * Get the node on the target index of the Linked List.
+     *
+     * @param      index  The index of the node to be returned
+     *
+     * @return     The node on the given index of the Linked List
+     */
+    public int get(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+        return getAt(index);
+    }
+
+    /**
+     * Get the node on the target index of the Linked List.
+     *
+     * @param      index  The index of the node to be returned, -1 for the last
+     *
+     * @return     The node on the given index of the Linked List
+     */
+    private int getAt(int index) {
+        Node node = head;
+        int pos = 0;
+        node.localLock.readLock().lock();
+        try {
+            if (index >= count) {
+                throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+            }
+            if (index < 0) {
+                index = count - 1;
+            }
+
+            int target = index + 1;
+            for (int l = MAX_LEVEL - 1; l >= 0 && pos < target; l--) {
+                while (node.next[l] != null && pos + node.span[l] <= target) {
+                    Node nextNode = node.next[l];
+                    nextNode.localLock.readLock().lock();
+                    pos += node.span[l];
+                    node.localLock.readLock().unlock();
+                    node = nextNode;
+                }
+            }
+            return node.value;
+        } finally {
+            node.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the first node of the Linked List.
+     *
+     * @return     The first node of the Linked List
+     */
+    public int getFirst() {
+        return getAt(0);
+    }
+
+    /**
+     * Gets the last node of the Linked List.
+     *
+     * @return     The last node of the Linked List
+     */
+    public int getLast() {
+        return getAt(-1);
+    }
+
+    /**
+     * Determines if the Linked List is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Get the size of the Linked List.
+     *
+     * @return     The size of the Linked List.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Display the Linked List.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        Node node = head;
+        node.localLock.readLock().lock();
+        try {
+            while (node.next[0] != null) {
+                Node nextNode = node.next[0];
+                nextNode.localLock.readLock().lock();
+                node.localLock.readLock().unlock();
+                node = nextNode;
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(node.value);
+            }
+        } finally {
+            node.localLock.readLock().unlock();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,363 @@
+/**
+ * Lock Free Linked List, with the same API as the Thread Safe Linked List.
+ *
+ * The next pointer of each node carries a mark, modified based on the list of Harris and Michael.
+ * A node is removed logically by marking its next pointer, after which no node can be inserted
+ * behind it, and then physically by swinging the next pointer of its predecessor. Writers only CAS
+ * at the splice point, and unlink the marked nodes they run into on the way. Readers never write
+ * anything, they just skip the marked nodes.
+ *
+ * The indexes are counted on the nodes seen during the traversal, so under concurrent writes an
+ * operation on an index acts on the node that held that index when the traversal passed it.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+public class LockFreeLinkedList {
+
+    /**
+     * The Node of the Linked List.
+     */
+    class Node {
+        /**
+         * The value of the node.
+         */
+        public final int value;
+        /**
+         * Next node, marked once this node is removed.
+         */
+        public final AtomicMarkableReference<Node> next;
+
+        public Node(int val, Node next) {
+            this.value = val;
+            this.next = new AtomicMarkableReference<Node>(next, false);
+        }
+    }
+
+    /**
+     * The Window of a writer, the node on the position and its predecessor.
+     */
+    class Window {
+        public final Node pred;
+        public final Node curr;
+
+        public Window(Node pred, Node curr) {
+            this.pred = pred;
+            this.curr = curr;
+        }
+    }
+
+    /**
+     * Instance Variable, the head of the Linked List, never removed.
+     */
+    private final Node head;
+
+    /**
+     * Constructor of the Lock Free Linked List.
+     */
+    LockFreeLinkedList() {
+        this.head = new Node(-1, null);
+    }
+
+    /**
+     * Find the node on the index and its predecessor, unlinking the removed nodes on the way.
+     *
+     * @param      index  The index, -1 for the position after the last node
+     *
+     * @return     The window, with a null node for the position after the last node
+     */
+    private Window find(int index) {
+        boolean[] marked = { false };
+        retry:
+        while (true) {
+            Node pred = head;
+            Node curr = pred.next.getReference();
+            int i = 0;
+            while (true) {
+                if (curr == null) {
+                    if (index >= 0 && i < index) {
+                        throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+                    }
+                    return new Window(pred, null);
+                }
+                Node succ = curr.next.get(marked);
+                if (marked[0]) {
+                    if (!pred.next.compareAndSet(curr, succ, false, false)) {
+                        continue retry;
+                    }
+                    curr = succ;
+                    continue;
+                }
+                if (i == index) {
+                    return new Window(pred, curr);
+                }
+                pred = curr;
+                curr = succ;
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Find the last node and its predecessor, unlinking the removed nodes on the way.
+     *
+     * @return     The window, null if the list is empty
+     */
+    private Window findLast() {
+        boolean[] marked = { false };
+        retry:
+        while (true) {
+            Node prev = null;
+            Node pred = head;
+            Node curr = pred.next.getReference();
+            while (curr != null) {
+                Node succ = curr.next.get(marked);
+                if (marked[0]) {
+                    if (!pred.next.compareAndSet(curr, succ, false, false)) {
+                        continue retry;
+                    }
+                    curr = succ;
+                    continue;
+                }
+                prev = pred;
+                pred = curr;
+                curr = succ;
+            }
+            return prev == null ? null : new Window(prev, pred);
+        }
+    }
+
+    /**
+     * Find the node on the index without writing anything.
+     *
+     * @param      index  The index, -1 for the last node
+     *
+     * @return     The node
+     */
+    private Node read(int index) {
+        Node res = null;
+        int i = 0;
+        for (Node node = head.next.getReference(); node != null; node = node.next.getReference()) {
+            if (node.next.isMarked()) {
+                continue;
+            }
+            if (i == index) {
+                return node;
+            }
+            res = node;
+            i++;
+        }
+        if (index >= 0 || res == null) {
+            throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+        }
+        return res;
+    }
+
+    /**
+     * Clear the linked list. Every node is marked before the list is cut off the head, so that no
+     * insert can land behind a node that is being dropped.
+     */
+    public void clear() {
+        while (true) {
+            Node first = head.next.getReference();
+            if (first == null) {
+                return;
+            }
+            for (Node node = first; node != null; ) {
+                Node succ = node.next.getReference();
+                if (node.next.attemptMark(succ, true)) {
+                    node = succ;
+                } else if (node.next.isMarked()) {
+                    node = node.next.getReference();
+                }
+            }
+            head.next.compareAndSet(first, null, false, false);
+        }
+    }
+
+    /**
+     * Insert the Node into the list.
+     *
+     * @param      value  The value of the new node
+     * @param      index  The index of the new node
+     */
+    public void insert(int value, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+
+        while (true) {
+            Window window = find(index);
+            Node node = new Node(value, window.curr);
+            if (window.pred.next.compareAndSet(window.curr, node, false, false)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Inser the node to the first of the Linked List.
+     *
+     * @param      value  The value of the new Node
+     */
+    public void insertFirst(int value) {
+        insert(value, 0);
+    }
+
+    /**
+     * Insert the node to the last of the linked List.
+     *
+     * @param      value  The value of the new node
+     */
+    public void insertLast(int value) {
+        while (true) {
+            Window window = find(-1);
+            Node node = new Node(value, null);
+            if (window.pred.next.compareAndSet(null, node, false, false)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Mark the node of the window and try to unlink it once.
+     *
+     * @param      window  The window
+     *
+     * @return     True if this call marked it, False if another remover did first.
+     */
+    private boolean delete(Window window) {
+        Node succ = window.curr.next.getReference();
+        if (!window.curr.next.compareAndSet(succ, succ, false, true)) {
+            return false;
+        }
+        // If this fails the next writer passing by unlinks it
+        window.pred.next.compareAndSet(window.curr, succ, false, false);
+        return true;
+    }
+
+    /**
+     * Remove the node with the given index from the list.
+     *
+     * @param      index  The index of the node to be removed
+     */
+    public void remove(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+
+        while (true) {
+            Window window = find(index);
+            if (window.curr == null) {
+                throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+            }
+            if (delete(window)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the first node from the list.
+     */
+    public void removeFirst() {
+        remove(0);
+    }
+
+    /**
+     * Remove the last node from the list.
+     */
+    public void removeLast() {
+        while (true) {
+            Window window = findLast();
+            if (window == null) {
+                throw new IllegalArgumentException("The Linked List is empty!");
+            }
+            if (delete(window)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the node on the target index of the Linked List.
+     *
+     * @param      index  The index of the node to be returned
+     *
+     * @return     The node on the given index of the Linked List
+     */
+    public int get(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+        return read(index).value;
+    }
+
+    /**
+     * Get the first node of the Linked List.
+     *
+     * @return     The first node of the Linked List
+     */
+    public int getFirst() {
+        return get(0);
+    }
+
+    /**
+     * Gets the last node of the Linked List.
+     *
+     * @return     The last node of the Linked List
+     */
+    public int getLast() {
+        return read(-1).value;
+    }
+
+    /**
+     * Determines if the Linked List is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        for (Node node = head.next.getReference(); node != null; node = node.next.getReference()) {
+            if (!node.next.isMarked()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the size of the Linked List.
+     *
+     * @return     The size of the Linked List.
+     */
+    public int size() {
+        int size = 0;
+        for (Node node = head.next.getReference(); node != null; node = node.next.getReference()) {
+            if (!node.next.isMarked()) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Display the Linked List.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Node node = head.next.getReference(); node != null; node = node.next.getReference()) {
+            if (!node.next.isMarked()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(node.value);
+            }
+        }
+        return sb.toString();
+    }
+}
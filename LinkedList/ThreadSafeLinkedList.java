@@ -1,12 +1,19 @@
 /**
  * Thread Safe Linked List built from scratch.
  *
+ * A node is read with its read lock and its next pointer is changed with its write lock. The
+ * operations on an index walk from the head with lock coupling, taking the lock of the next node
+ * before releasing the current one, so they hold at most two locks and allocate nothing. The
+ * operations on the last node go straight to the tail and only lock the last one or two nodes, so
+ * appending and reading the last node take constant time. The size is kept in a striped counter.
+ *
  * @author     Hao Wang
- * 
+ *
  * 05/2017
  */
 
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.*;
 
 public class ThreadSafeLinkedList {
@@ -27,6 +34,10 @@ public class ThreadSafeLinkedList {
          * Next node.
          */
         public Node next;
+        /**
+         * Previous node, only changed under the write lock of the previous node.
+         */
+        public volatile Node prev;
 
         public Node(int val) {
             this.value = val;
@@ -47,22 +58,90 @@ public class ThreadSafeLinkedList {
      */
     private Node head;
 
+    /**
+     * Instance Variable, the last node of the Linked List, the head if it is empty.
+     * Only changed under the write lock of the last node.
+     */
+    private volatile Node tail;
+
+    /**
+     * Instance Variable, the number of nodes.
+     */
+    private final LongAdder count;
+
     /**
      * Constructor of the Thread Safe Linked List.
      */
     ThreadSafeLinkedList() {
         this.head = new Node(-1, null);
+        this.tail = head;
+        this.count = new LongAdder();
     }
 
     /**
-     * Clear the linked list.
+     * Walk from the head to the node on the position with lock coupling.
+     *
+     * @param      position  The position, 0 for the head and i + 1 for the node on index i
+     * @param      write     Whether to take the write lock of the node on the position, the read
+     *                       lock otherwise
+     *
+     * @return     The node on the position, locked
+     */
+    private Node lockPosition(int position, boolean write) {
+        if (position == 0) {
+            if (write) {
+                head.localLock.writeLock().lock();
+            } else {
+                head.localLock.readLock().lock();
+            }
+            return head;
+        }
+
+        Node node = head;
+        node.localLock.readLock().lock();
+        for (int i = 1; ; i++) {
+            Node nextNode = node.next;
+            if (nextNode == null) {
+                node.localLock.readLock().unlock();
+                throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+            }
+            if (write && i == position) {
+                nextNode.localLock.writeLock().lock();
+            } else {
+                nextNode.localLock.readLock().lock();
+            }
+            node.localLock.readLock().unlock();
+            node = nextNode;
+            if (i == position) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Clear the linked list. The head stays locked so that no new operation starts, and the
+     * nodes are write locked one after the other up to the last one, so that the operations
+     * already under way finish before the nodes are dropped.
      */
     public void clear() {
+        head.localLock.writeLock().lock();
         try {
-            head.localLock.writeLock().lock();
+            Node node = head;
+            while (node.next != null) {
+                Node nextNode = node.next;
+                nextNode.localLock.writeLock().lock();
+                if (node != head) {
+                    node.localLock.writeLock().unlock();
+                }
+                node = nextNode;
+            }
+
             head.next = null;
-        } catch (Exception e) {
-            e.printStackTrace();
+            tail = head;
+            count.reset();
+            if (node != head) {
+                node.localLock.writeLock().unlock();
+            }
         } finally {
             head.localLock.writeLock().unlock();
         }
@@ -79,47 +158,66 @@ public class ThreadSafeLinkedList {
             throw new IllegalArgumentException("The index have to be non-negative!");
         }
 
-        // Use the stack to track the road and then pop them and unlock them
-        Stack<Node> stack = new Stack<Node>();
-        Node node = null;
+        // Lock the writeLock of the node before the new one
+        Node node = lockPosition(index, true);
         try {
-            // First, lock and push the head
-            head.localLock.readLock().lock();
-            node = head;
-            stack.push(head);
-            node = node.next;
-            index--;
-
-            // Find the target node
-            while (node.next != null && index >= 0) {
-                node.localLock.readLock().lock();
-                stack.push(node);
-                node = node.next;
-                index--;
+            Node newNode = new Node(value, node.next);
+            newNode.prev = node;
+            if (node.next != null) {
+                node.next.prev = newNode;
+            } else {
+                tail = newNode;
             }
+            node.next = newNode;
+            count.increment();
+        } finally {
+            node.localLock.writeLock().unlock();
+        }
+    }
 
-            if (index > 0) {
-                throw new IllegalArgumentException("The index excceeds the length of the Linked List!");
-            }
+    /**
+     * Insert the values into the list in one walk, the first of them on the given index. The new
+     * nodes are linked together before any lock is taken, then spliced in at once.
+     *
+     * @param      values  The values of the new nodes
+     * @param      index   The index of the first new node
+     */
+    public void insertAll(int[] values, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
 
-            // Lock the writeLock of the next node
-            node.localLock.writeLock().lock();
-            // insert into last node
-            node.next = new Node(value, node.next);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // Unlock the writeLock of the previous last node
-            if (node != null) {
-                node.localLock.writeLock().unlock();
+        Node first = null;
+        Node last = null;
+        for (int value : values) {
+            Node newNode = new Node(value, null);
+            if (last == null) {
+                first = newNode;
+            } else {
+                newNode.prev = last;
+                last.next = newNode;
             }
+            last = newNode;
+        }
 
-            // Unlock the readLock of all nodes in the stack
-            while (!stack.isEmpty()) {
-                Node curr = stack.pop();
-                curr.localLock.readLock().unlock();
+        // Lock the writeLock of the node before the new ones
+        Node node = lockPosition(index, true);
+        try {
+            if (first == null) {
+                return;
+            }
+            first.prev = node;
+            last.next = node.next;
+            if (node.next != null) {
+                node.next.prev = last;
+            } else {
+                tail = last;
             }
-        }  
+            node.next = first;
+            count.add(values.length);
+        } finally {
+            node.localLock.writeLock().unlock();
+        }
     }
 
     /**
@@ -137,39 +235,21 @@ public class ThreadSafeLinkedList {
      * @param      value  The value of the new node
      */
     public void insertLast(int value) {
-        // Use the stack to track the road and then pop them and unlock them
-        Stack<Node> stack = new Stack<Node>();
-        Node node = null;
-        try {
-            // First, lock and push the head
-            head.localLock.readLock().lock();
-            node = head;
-            stack.push(head);
-            node = node.next;
-
-            // Find the last node
-            while (node.next != null) {
-                node.localLock.readLock().lock();
-                stack.push(node);
-                node = node.next;
-            }
-
-            // Lock the writeLock of the last node
-            node.localLock.writeLock().lock();
-            // insert into last node
-            node.next = new Node(value, null);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // Unlock the writeLock of the previous last node
-            if (node != null) {
-                node.localLock.writeLock().unlock();
-            }
-
-            // Unlock the readLock of all nodes in the stack
-            while (!stack.isEmpty()) {
-                Node curr = stack.pop();
-                curr.localLock.readLock().unlock();
+        while (true) {
+            Node last = tail;
+            last.localLock.writeLock().lock();
+            try {
+                // The tail only moves away under the lock of the last node
+                if (last == tail) {
+                    Node newNode = new Node(value, null);
+                    newNode.prev = last;
+                    last.next = newNode;
+                    tail = newNode;
+                    count.increment();
+                    return;
+                }
+            } finally {
+                last.localLock.writeLock().unlock();
             }
         }
     }
@@ -184,59 +264,81 @@ public class ThreadSafeLinkedList {
             throw new IllegalArgumentException("The index have to be non-negative!");
         }
 
-        // Use the stack to track the road and then pop them and unlock them
-        Stack<Node> stack = new Stack<Node>();
-        Node node = null;
-        Node nextNode = null;
+        // Lock the writeLock of the node before the target, then of the target
+        Node node = lockPosition(index, true);
         try {
-            // First, lock and push the head
-            head.localLock.readLock().lock();
-            node = head;
-            stack.push(head);
-            node = node.next;
-            index--;
-
-            // Find the last node
-            while (node.next != null && index >= 0) {
-                node.localLock.readLock().lock();
-                stack.push(node);
-                node = node.next;
-                index--;
-            }
-
-            if (index > 0) {
-                throw new IllegalArgumentException("The index excceeds the length of the Linked List!");
+            Node nextNode = node.next;
+            if (nextNode == null) {
+                throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
             }
-
-            // Lock the writeLock of the last node
-            nextNode = node;
             nextNode.localLock.writeLock().lock();
-
-            // Now pop the stack to get the node before last node and lock its writeLock
-            node = stack.pop();
-            node.localLock.writeLock().lock();
-
-            // Remove the target node
-            node.next = nextNode.next;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // Unlock the previous last node
-            if (nextNode != null) {
+            try {
+                node.next = nextNode.next;
+                if (nextNode.next != null) {
+                    nextNode.next.prev = node;
+                } else {
+                    tail = node;
+                }
+                count.decrement();
+            } finally {
                 nextNode.localLock.writeLock().unlock();
             }
+        } finally {
+            node.localLock.writeLock().unlock();
+        }
+    }
 
-            // Unlock the writeLock of the previous last node
-            if (node != null) {
-                node.localLock.writeLock().unlock();
+    /**
+     * Remove the nodes from index from to index to, exclusive, in one walk. The node before the
+     * range is write locked first, so nothing can enter the range, then the write locks are
+     * coupled along the range so the readers inside leave it, and the range is cut out at once.
+     *
+     * @param      from  The index of the first node to be removed
+     * @param      to    The index after the last node to be removed
+     */
+    public void removeRange(int from, int to) {
+        if (from < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+        if (to < from) {
+            throw new IllegalArgumentException("The end of the range cannot be before its start!");
+        }
+
+        // Lock the writeLock of the node before the range
+        Node node = lockPosition(from, true);
+        try {
+            if (to == from) {
+                return;
+            }
+            Node last = node;
+            for (int i = from; i < to; i++) {
+                Node nextNode = last.next;
+                if (nextNode == null) {
+                    if (last != node) {
+                        last.localLock.writeLock().unlock();
+                    }
+                    throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+                }
+                nextNode.localLock.writeLock().lock();
+                if (last != node) {
+                    last.localLock.writeLock().unlock();
+                }
+                last = nextNode;
             }
 
-            // Unlock the readLock of all nodes in the stack
-            while (!stack.isEmpty()) {
-                Node curr = stack.pop();
-                curr.localLock.readLock().unlock();
+            try {
+                node.next = last.next;
+                if (last.next != null) {
+                    last.next.prev = node;
+                } else {
+                    tail = node;
+                }
+                count.add(from - to);
+            } finally {
+                last.localLock.writeLock().unlock();
             }
+        } finally {
+            node.localLock.writeLock().unlock();
         }
     }
 
@@ -251,53 +353,34 @@ public class ThreadSafeLinkedList {
      * Remove the last node from the list.
      */
     public void removeLast() {
-        // Use the stack to track the road and then pop them and unlock them
-        Stack<Node> stack = new Stack<Node>();
-        Node node = null;
-        Node lastNode = null;
-        try {
-            // First, lock and push the head
-            head.localLock.readLock().lock();
-            node = head;
-            stack.push(head);
-            node = node.next;
-
-            // Find the last node
-            while (node.next != null) {
-                node.localLock.readLock().lock();
-                stack.push(node);
-                node = node.next;
+        while (true) {
+            Node last = tail;
+            if (last == head) {
+                throw new IllegalArgumentException("The Linked List is empty!");
             }
 
-            // Lock the writeLock of the last node
-            lastNode = node;
-            lastNode.localLock.writeLock().lock();
-
-            // Now pop the stack to get the node before last node and lock its writeLock
-            node = stack.pop();
+            // Lock in the order of the list, the previous node first, then check nothing moved
+            Node node = last.prev;
             node.localLock.writeLock().lock();
-
-            // Remove the last node
-            node.next = null;
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // Unlock the previous last node
-            if (lastNode != null) {
-                lastNode.localLock.writeLock().unlock();
-            }
-
-            // Unlock the writeLock of the previous last node
-            if (node != null) {
+            try {
+                if (last.prev != node) {
+                    continue;
+                }
+                last.localLock.writeLock().lock();
+                try {
+                    if (last != tail) {
+                        continue;
+                    }
+                    node.next = null;
+                    tail = node;
+                    count.decrement();
+                    return;
+                } finally {
+                    last.localLock.writeLock().unlock();
+                }
+            } finally {
                 node.localLock.writeLock().unlock();
             }
-
-            // Unlock the readLock of all nodes in the stack
-            while (!stack.isEmpty()) {
-                Node curr = stack.pop();
-                curr.localLock.readLock().unlock();
-            }
         }
     }
 
@@ -313,48 +396,13 @@ public class ThreadSafeLinkedList {
             throw new IllegalArgumentException("The index have to be non-negative!");
         }
 
-        // Use the stack to track the road and then pop them and unlock them
-        Stack<Node> stack = new Stack<Node>();
-        Node node = null;
-        int res = -1;
+        // Find the target node with its readLock
+        Node node = lockPosition(index + 1, false);
         try {
-            // First, lock and push the head
-            head.localLock.readLock().lock();
-            node = head;
-            stack.push(head);
-            node = node.next;
-            index--;
-
-            // Find the last node
-            while (node.next != null && index >= 0) {
-                node.localLock.readLock().lock();
-                stack.push(node);
-                node = node.next;
-                index--;
-            }
-
-            if (index > 0) {
-                throw new IllegalArgumentException("The index excceeds the length of the Linked List!");
-            }
-
-            // Find the target node, then lock its readLock;
-            node.localLock.readLock().lock();
-            res = node.value;
-
-        } catch (Exception e) {
-            e.printStackTrace();
+            return node.value;
         } finally {
-            // Unlock the target node
-            if (node != null) {
-                node.localLock.readLock().unlock();
-            }
-            // Unlock the readLock of all nodes in the stack
-            while (!stack.isEmpty()) {
-                Node curr = stack.pop();
-                curr.localLock.readLock().unlock();
-            }
+            node.localLock.readLock().unlock();
         }
-        return res;
     }
 
     /**
@@ -372,42 +420,20 @@ public class ThreadSafeLinkedList {
      * @return     The last node of the Linked List
      */
     public int getLast() {
-        // Use the stack to track the road and then pop them and unlock them
-        Stack<Node> stack = new Stack<Node>();
-        Node node = null;
-        int res = -1;
-        try {
-            // First, lock and push the head
-            head.localLock.readLock().lock();
-            node = head;
-            stack.push(head);
-            node = node.next;
-
-            // Find the last node
-            while (node.next != null) {
-                node.localLock.readLock().lock();
-                stack.push(node);
-                node = node.next;
-            }
-
-            // Lock the read lock of last node
-            node.localLock.readLock().lock();
-            res = node.value;
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // Release the read lock of last node
-            if (node != null) {
-                node.localLock.readLock().unlock();
-            }
-            
-            // Unlock the readLock of all nodes in the stack
-            while (!stack.isEmpty()) {
-                Node curr = stack.pop();
-                curr.localLock.readLock().unlock();
+        while (true) {
+            Node last = tail;
+            last.localLock.readLock().lock();
+            try {
+                if (last == tail) {
+                    if (last == head) {
+                        throw new IllegalArgumentException("The Linked List is empty!");
+                    }
+                    return last.value;
+                }
+            } finally {
+                last.localLock.readLock().unlock();
             }
         }
-        return res;
     }
 
     /**
@@ -416,7 +442,7 @@ public class ThreadSafeLinkedList {
      * @return     True if empty, False otherwise.
      */
     public boolean isEmpty() {
-        return head.next == null;
+        return tail == head;
     }
 
     /**
@@ -425,42 +451,34 @@ public class ThreadSafeLinkedList {
      * @return     The size of the Linked List.
      */
     public int size() {
-        // Use the stack to track the road and then pop them and unlock them
-        Stack<Node> stack = new Stack<Node>();
-        Node node = null;
-        int size = 0;
-        try {
-            // First, lock and push the head
-            head.localLock.readLock().lock();
-            node = head;
-            stack.push(head);
-            node = node.next;
+        return count.intValue();
+    }
 
-            // Find the last node
+    /**
+     * Copy the values of the Linked List into an array in one walk.
+     *
+     * @return     The values in order
+     */
+    public int[] toArray() {
+        int[] res = new int[Math.max(size(), 16)];
+        int n = 0;
+        Node node = head;
+        node.localLock.readLock().lock();
+        try {
             while (node.next != null) {
-                node.localLock.readLock().lock();
-                stack.push(node);
-                node = node.next;
-                size++;
-            }
-
-            // Lock the read lock of last node
-            node.localLock.readLock().lock();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            // Release the read lock of last node
-            if (node != null) {
+                Node nextNode = node.next;
+                nextNode.localLock.readLock().lock();
                 node.localLock.readLock().unlock();
+                node = nextNode;
+                if (n == res.length) {
+                    res = Arrays.copyOf(res, n << 1);
+                }
+                res[n++] = node.value;
             }
-
-            // Unlock the readLock of all nodes in the stack
-            while (!stack.isEmpty()) {
-                Node curr = stack.pop();
-                curr.localLock.readLock().unlock();
-            }
+        } finally {
+            node.localLock.readLock().unlock();
         }
-        return size;
+        return n == res.length ? res : Arrays.copyOf(res, n);
     }
 
     /**
@@ -469,32 +487,22 @@ public class ThreadSafeLinkedList {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        String res = "";
-        Node node = head.next;
+        Node node = head;
+        node.localLock.readLock().lock();
         try {
-            // Global read lock
-            head.locallock.readLock().lock();
-            while (node != null) {
-                node.localLock.readLock().lock();
-                sb.append(node.value);
+            while (node.next != null) {
+                Node nextNode = node.next;
+                nextNode.localLock.readLock().lock();
                 node.localLock.readLock().unlock();
-                sb.append(", ");
-                node = node.next;
-            }
-            if (sb.length() > 2) {
-                res = sb.substring(0, sb.length() - 2);
-            } else {
-                res = sb.toString();
+                node = nextNode;
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(node.value);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         } finally {
-            if (node != null) {
-                node.locallock.readLock().unlock();
-            }
-            // Global read lock
-            head.locallock.readLock().unlock();
+            node.localLock.readLock().unlock();
         }
-        return res;
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
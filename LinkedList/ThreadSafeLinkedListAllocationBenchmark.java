@@ -0,0 +1,97 @@
+/**
+ * Allocation profile of the Thread Safe Linked List.
+ *
+ * Runs each operation in a loop on the current thread and prints the bytes allocated per
+ * operation, measured by the allocation counter of the thread. The reads are expected to print 0,
+ * and the writes the size of the new node and its lock.
+ *
+ * Usage: java ThreadSafeLinkedListAllocationBenchmark [size] [operations]
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.lang.management.ManagementFactory;
+
+public class ThreadSafeLinkedListAllocationBenchmark {
+
+    /**
+     * The rounds run before measuring, so that the code is compiled.
+     */
+    private static final int WARMUP_ROUNDS = 5;
+
+    /**
+     * Sink of the values read, so that the reads are not optimized away.
+     */
+    private static volatile int sink;
+
+    /**
+     * An operation on the list.
+     */
+    interface Operation {
+        void run(ThreadSafeLinkedList list, int i);
+    }
+
+    /**
+     * Get the bytes allocated by the current thread so far.
+     *
+     * @return     The allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Run the operation and print the bytes allocated per operation.
+     *
+     * @param      name        The name of the operation
+     * @param      list        The list
+     * @param      operations  The number of operations
+     * @param      op          The operation
+     */
+    private static void measure(String name, ThreadSafeLinkedList list, int operations, Operation op) {
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            for (int i = 0; i < operations; i++) {
+                op.run(list, i);
+            }
+        }
+
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            op.run(list, i);
+        }
+        long time = System.nanoTime() - start;
+        // The counter itself allocates nothing after the first call
+        long bytes = allocatedBytes() - before;
+        System.out.printf("%-24s %10.1f bytes/op %10.1f ns/op%n", name,
+                          (double) bytes / operations, (double) time / operations);
+    }
+
+    public static void main(String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        ThreadSafeLinkedList list = new ThreadSafeLinkedList();
+        for (int i = 0; i < size; i++) {
+            list.insertLast(i);
+        }
+        allocatedBytes();
+
+        measure("get", list, operations, (l, i) -> sink = l.get(i % size));
+        measure("getFirst", list, operations, (l, i) -> sink = l.getFirst());
+        measure("getLast", list, operations, (l, i) -> sink = l.getLast());
+        measure("size", list, operations, (l, i) -> sink = l.size());
+        measure("insert + remove", list, operations, (l, i) -> {
+            l.insert(i, i % size);
+            l.remove(i % size);
+        });
+        measure("insertLast + removeLast", list, operations, (l, i) -> {
+            l.insertLast(i);
+            l.removeLast();
+        });
+    }
+}
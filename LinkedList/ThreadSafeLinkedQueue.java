@@ -0,0 +1,361 @@
+/**
+ * Thread Safe Linked Queue, for using the Linked List as a work queue.
+ *
+ * The queue is modified based on the queue of Michael and Scott. The head always points to a dummy
+ * node whose successor holds the first value, producers CAS the new node behind the last one and
+ * swing the tail, and consumers swing the head. Producers only touch the tail and consumers only
+ * the head, so they meet on the same node only when the queue is nearly empty. A consumer that
+ * fixes a lagging tail helps the producer instead of waiting for it.
+ *
+ * A consumer blocked on an empty queue registers itself as a waiter, checks the queue again and
+ * parks with LockSupport, which also works on virtual threads. A producer unparks one waiter after
+ * each insert, and only when there is one, so the waiters cost nothing while the queue is busy.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class ThreadSafeLinkedQueue {
+
+    /**
+     * The Node of the Linked Queue.
+     */
+    class Node {
+        /**
+         * The value of the node.
+         */
+        public final int value;
+        /**
+         * Next node.
+         */
+        public final AtomicReference<Node> next;
+
+        public Node(int val) {
+            this.value = val;
+            this.next = new AtomicReference<Node>();
+        }
+    }
+
+    /**
+     * Instance Variable, the dummy node before the first value, only swung by the consumers.
+     */
+    private final AtomicReference<Node> head;
+
+    /**
+     * Instance Variable, the last node or one lagging behind it, only swung forward.
+     */
+    private final AtomicReference<Node> tail;
+
+    /**
+     * Instance Variable, the number of values inserted and removed, counted apart so that
+     * producers and consumers do not share a counter.
+     */
+    private final LongAdder inserted;
+    private final LongAdder removed;
+
+    /**
+     * Instance Variable, the consumers parked on the empty queue.
+     */
+    private final ConcurrentLinkedQueue<Thread> waiters;
+
+    /**
+     * Instance Variable, the number of waiters, read by the producers before touching them.
+     */
+    private final AtomicInteger waiterCount;
+
+    /**
+     * Constructor of the Thread Safe Linked Queue.
+     */
+    ThreadSafeLinkedQueue() {
+        Node dummy = new Node(-1);
+        this.head = new AtomicReference<Node>(dummy);
+        this.tail = new AtomicReference<Node>(dummy);
+        this.inserted = new LongAdder();
+        this.removed = new LongAdder();
+        this.waiters = new ConcurrentLinkedQueue<Thread>();
+        this.waiterCount = new AtomicInteger();
+    }
+
+    /**
+     * Insert the value to the last of the queue and wake up one waiting consumer if any.
+     *
+     * @param      value  The value
+     */
+    public void insertLast(int value) {
+        Node node = new Node(value);
+        while (true) {
+            Node last = tail.get();
+            Node next = last.next.get();
+            if (last != tail.get()) {
+                continue;
+            }
+            if (next != null) {
+                // The tail lags behind, help the other producer
+                tail.compareAndSet(last, next);
+                continue;
+            }
+            if (last.next.compareAndSet(null, node)) {
+                tail.compareAndSet(last, node);
+                break;
+            }
+        }
+        inserted.increment();
+        signal();
+    }
+
+    /**
+     * Unpark one waiting consumer, if any.
+     */
+    private void signal() {
+        if (waiterCount.get() == 0) {
+            return;
+        }
+        Thread waiter = waiters.poll();
+        if (waiter != null) {
+            waiterCount.decrementAndGet();
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Swing the head to the node holding the first value, which becomes the new dummy.
+     *
+     * @return     The node holding the value taken, null if the queue is empty
+     */
+    private Node dequeue() {
+        while (true) {
+            Node first = head.get();
+            Node last = tail.get();
+            Node next = first.next.get();
+            if (first != head.get()) {
+                continue;
+            }
+            if (next == null) {
+                return null;
+            }
+            if (first == last) {
+                // The tail lags behind the value about to be taken, move it first
+                tail.compareAndSet(last, next);
+                continue;
+            }
+            if (head.compareAndSet(first, next)) {
+                removed.increment();
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Remove the first value of the queue.
+     *
+     * @return     The value
+     */
+    public int removeFirst() {
+        Node node = dequeue();
+        if (node == null) {
+            throw new IllegalArgumentException("The Linked Queue is empty!");
+        }
+        return node.value;
+    }
+
+    /**
+     * Get the first value of the queue.
+     *
+     * @return     The first value
+     */
+    public int getFirst() {
+        while (true) {
+            Node first = head.get();
+            Node next = first.next.get();
+            if (first != head.get()) {
+                continue;
+            }
+            if (next == null) {
+                throw new IllegalArgumentException("The Linked Queue is empty!");
+            }
+            return next.value;
+        }
+    }
+
+    /**
+     * Remove the first value of the queue, waiting for one if the queue is empty.
+     *
+     * @return     The value
+     *
+     * @throws     InterruptedException  If interrupted while waiting
+     */
+    public int take() throws InterruptedException {
+        return await(-1L).value;
+    }
+
+    /**
+     * Remove the first value of the queue, waiting up to the timeout if the queue is empty.
+     *
+     * @param      timeout  The timeout
+     * @param      unit     The unit of the timeout
+     *
+     * @return     The value, or null if the timeout passed first
+     *
+     * @throws     InterruptedException  If interrupted while waiting
+     */
+    public Integer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout have to be non-negative!");
+        }
+        Node node = await(unit.toNanos(timeout));
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Remove the first value, parking while the queue is empty.
+     *
+     * @param      nanos  The time to wait, negative to wait without limit
+     *
+     * @return     The node holding the value taken, or null if the time passed first
+     *
+     * @throws     InterruptedException  If interrupted while waiting
+     */
+    private Node await(long nanos) throws InterruptedException {
+        Node node = dequeue();
+        if (node != null) {
+            return node;
+        }
+
+        long deadline = System.nanoTime() + nanos;
+        Thread current = Thread.currentThread();
+        while (true) {
+            // Register before checking again, so an insert after the check sees this waiter
+            waiterCount.incrementAndGet();
+            waiters.add(current);
+            node = dequeue();
+            if (node == null) {
+                if (nanos < 0) {
+                    LockSupport.park(this);
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        leave(current);
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                node = dequeue();
+            }
+
+            leave(current);
+            if (node != null) {
+                return node;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Unregister a waiter. If a producer already took it off to wake it up and the waiter is
+     * leaving without a value, pass the wake up on so that it is not lost.
+     *
+     * @param      current  The waiter
+     */
+    private void leave(Thread current) {
+        if (waiters.remove(current)) {
+            waiterCount.decrementAndGet();
+        } else if (!isEmpty()) {
+            signal();
+        }
+    }
+
+    /**
+     * Remove up to max values from the front of the queue into the buffer, without waiting.
+     *
+     * @param      buf  The buffer, filled from its start
+     * @param      max  The maximum number of values
+     *
+     * @return     The number of values removed
+     */
+    public int drainTo(int[] buf, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("The max have to be non-negative!");
+        }
+        max = Math.min(max, buf.length);
+        if (max == 0) {
+            return 0;
+        }
+
+        // Detach up to max nodes with a single CAS of the head, never passing the tail
+        while (true) {
+            Node first = head.get();
+            Node last = tail.get();
+            Node next = first.next.get();
+            if (first != head.get()) {
+                continue;
+            }
+            if (next == null) {
+                return 0;
+            }
+            if (first == last) {
+                tail.compareAndSet(last, next);
+                continue;
+            }
+
+            int n = 1;
+            Node end = next;
+            buf[0] = next.value;
+            while (n < max && end != tail.get()) {
+                Node succ = end.next.get();
+                if (succ == null) {
+                    break;
+                }
+                buf[n++] = succ.value;
+                end = succ;
+            }
+            if (head.compareAndSet(first, end)) {
+                removed.add(n);
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Determines if the queue is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return head.get().next.get() == null;
+    }
+
+    /**
+     * Get the size of the queue, exact when no insert or remove is under way.
+     *
+     * @return     The size of the queue.
+     */
+    public int size() {
+        long size = inserted.sum() - removed.sum();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    /**
+     * Display the queue.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Node node = head.get().next.get(); node != null; node = node.next.get()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(node.value);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,546 @@
+/**
+ * Unrolled Thread Safe Linked List, with the same API as the Thread Safe Linked List.
+ *
+ * The values are stored in chunks of up to CHUNK_SIZE ints, each chunk with one lock, so a value
+ * costs a few bytes instead of a node and a lock, and a scan reads whole arrays. A full chunk is
+ * split in two on insert, and a chunk less than half full takes values from the next one on
+ * remove, or absorbs it when both fit in one chunk. Only the last chunk can be empty, and it is
+ * dropped as soon as it is seen empty.
+ *
+ * The operations on an index walk from the head with lock coupling on the read locks. A writer
+ * keeps the read lock of the previous chunk while it trades the read lock of the target chunk for
+ * the write lock, so the target cannot be absorbed meanwhile, and checks the index again. If the
+ * chunk shrank in between, the write lock is downgraded to the read lock and the walk goes on.
+ * Chunks are only unlinked under the write locks of both the chunk and the previous one, and all
+ * locks are taken in the order of the list. The operations on the last value go straight to the
+ * tail.
+ *
+ * @author     Hao Wang
+ *
+ * 05/2017
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+import java.util.function.IntConsumer;
+
+public class UnrolledThreadSafeLinkedList {
+
+    /**
+     * The maximum number of values in a chunk.
+     */
+    static final int CHUNK_SIZE = 128;
+
+    /**
+     * The Chunk of the Linked List.
+     */
+    class Chunk {
+        /**
+         * The values of the chunk, the first count of them are used.
+         */
+        public final int[] values;
+        /**
+         * The number of values in the chunk.
+         */
+        public int count;
+        /**
+         * The local lock of the chunk.
+         */
+        public ReadWriteLock localLock;
+        /**
+         * Next chunk.
+         */
+        public Chunk next;
+        /**
+         * Previous chunk, only changed under the write lock of the previous chunk.
+         */
+        public volatile Chunk prev;
+        /**
+         * The index inside the chunk found by the writer holding its write lock.
+         */
+        public int cursor;
+
+        public Chunk() {
+            this.values = new int[CHUNK_SIZE];
+            this.count = 0;
+            this.next = null;
+            this.localLock = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Instance Variable, the first chunk of the Linked List, never unlinked.
+     */
+    private Chunk head;
+
+    /**
+     * Instance Variable, the last chunk of the Linked List.
+     * Only changed under the write lock of the last chunk.
+     */
+    private volatile Chunk tail;
+
+    /**
+     * Instance Variable, the number of values.
+     */
+    private final LongAdder count;
+
+    /**
+     * Constructor of the Unrolled Thread Safe Linked List.
+     */
+    UnrolledThreadSafeLinkedList() {
+        this.head = new Chunk();
+        this.tail = head;
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Clear the linked list. The head stays locked so that no new operation starts, and the
+     * chunks are write locked one after the other up to the last one, so that the operations
+     * already under way finish before the chunks are dropped.
+     */
+    public void clear() {
+        head.localLock.writeLock().lock();
+        try {
+            Chunk chunk = head;
+            while (chunk.next != null) {
+                Chunk nextChunk = chunk.next;
+                nextChunk.localLock.writeLock().lock();
+                if (chunk != head) {
+                    chunk.localLock.writeLock().unlock();
+                }
+                chunk = nextChunk;
+            }
+
+            head.count = 0;
+            head.next = null;
+            tail = head;
+            count.reset();
+            if (chunk != head) {
+                chunk.localLock.writeLock().unlock();
+            }
+        } finally {
+            head.localLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Walk from the head to the chunk holding the index and write lock it.
+     *
+     * @param      index   The index
+     * @param      insert  Whether the index may be right after the last value of a chunk
+     *
+     * @return     The chunk, write locked, with the index relative to it in its cursor
+     */
+    private Chunk lockIndex(int index, boolean insert) {
+        int last = insert ? 0 : 1;
+        Chunk pred = null;
+        Chunk chunk = head;
+        chunk.localLock.readLock().lock();
+        while (true) {
+            if (index <= chunk.count - last) {
+                // The previous chunk stays read locked, so that this one is not unlinked
+                chunk.localLock.readLock().unlock();
+                chunk.localLock.writeLock().lock();
+                if (index <= chunk.count - last) {
+                    break;
+                }
+                chunk.localLock.readLock().lock();
+                chunk.localLock.writeLock().unlock();
+            }
+
+            index -= chunk.count;
+            Chunk nextChunk = chunk.next;
+            if (nextChunk == null) {
+                chunk.localLock.readLock().unlock();
+                if (pred != null) {
+                    pred.localLock.readLock().unlock();
+                }
+                throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+            }
+            nextChunk.localLock.readLock().lock();
+            if (pred != null) {
+                pred.localLock.readLock().unlock();
+            }
+            pred = chunk;
+            chunk = nextChunk;
+        }
+
+        if (pred != null) {
+            pred.localLock.readLock().unlock();
+        }
+        chunk.cursor = index;
+        return chunk;
+    }
+
+    /**
+     * Split a full chunk, moving its upper half to a new chunk after it.
+     * Called with the write lock of the chunk.
+     *
+     * @param      chunk  The chunk
+     *
+     * @return     The new chunk, write locked before it is linked
+     */
+    private Chunk split(Chunk chunk) {
+        Chunk newChunk = new Chunk();
+        newChunk.localLock.writeLock().lock();
+        int half = chunk.count >>> 1;
+        System.arraycopy(chunk.values, half, newChunk.values, 0, chunk.count - half);
+        newChunk.count = chunk.count - half;
+        chunk.count = half;
+
+        newChunk.next = chunk.next;
+        newChunk.prev = chunk;
+        if (chunk.next != null) {
+            chunk.next.prev = newChunk;
+        } else {
+            tail = newChunk;
+        }
+        chunk.next = newChunk;
+        return newChunk;
+    }
+
+    /**
+     * Refill a chunk less than half full from the next one, taking half of the difference, or
+     * absorbing the next one when both fit. Called with the write lock of the chunk.
+     *
+     * @param      chunk  The chunk
+     */
+    private void rebalance(Chunk chunk) {
+        Chunk nextChunk = chunk.next;
+        if (nextChunk == null || chunk.count >= CHUNK_SIZE / 2) {
+            return;
+        }
+
+        nextChunk.localLock.writeLock().lock();
+        try {
+            if (chunk.count + nextChunk.count <= CHUNK_SIZE) {
+                System.arraycopy(nextChunk.values, 0, chunk.values, chunk.count, nextChunk.count);
+                chunk.count += nextChunk.count;
+                chunk.next = nextChunk.next;
+                if (nextChunk.next != null) {
+                    nextChunk.next.prev = chunk;
+                } else {
+                    tail = chunk;
+                }
+            } else {
+                int moved = (nextChunk.count - chunk.count) >>> 1;
+                System.arraycopy(nextChunk.values, 0, chunk.values, chunk.count, moved);
+                System.arraycopy(nextChunk.values, moved, nextChunk.values, 0, nextChunk.count - moved);
+                chunk.count += moved;
+                nextChunk.count -= moved;
+            }
+        } finally {
+            nextChunk.localLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the last chunks while they are empty, the head excepted.
+     */
+    private void pruneTail() {
+        while (true) {
+            Chunk last = tail;
+            if (last == head || last.count != 0) {
+                return;
+            }
+
+            // Lock in the order of the list, the previous chunk first, then check nothing moved
+            Chunk chunk = last.prev;
+            chunk.localLock.writeLock().lock();
+            try {
+                if (last.prev != chunk) {
+                    continue;
+                }
+                last.localLock.writeLock().lock();
+                try {
+                    if (last == tail && last.count == 0) {
+                        chunk.next = null;
+                        tail = chunk;
+                    }
+                } finally {
+                    last.localLock.writeLock().unlock();
+                }
+            } finally {
+                chunk.localLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Insert the value into the list.
+     *
+     * @param      value  The value
+     * @param      index  The index of the value
+     */
+    public void insert(int value, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+
+        Chunk chunk = lockIndex(index, true);
+        try {
+            int i = chunk.cursor;
+            Chunk target = chunk;
+            if (chunk.count == CHUNK_SIZE) {
+                if (chunk.next == null && i == CHUNK_SIZE) {
+                    // Appending, start a new chunk instead of leaving two half full ones
+                    append(chunk, value);
+                    return;
+                }
+                Chunk newChunk = split(chunk);
+                try {
+                    if (i > chunk.count) {
+                        i -= chunk.count;
+                        target = newChunk;
+                    }
+                    System.arraycopy(target.values, i, target.values, i + 1, target.count - i);
+                    target.values[i] = value;
+                    target.count++;
+                    count.increment();
+                } finally {
+                    newChunk.localLock.writeLock().unlock();
+                }
+                return;
+            }
+            System.arraycopy(chunk.values, i, chunk.values, i + 1, chunk.count - i);
+            chunk.values[i] = value;
+            chunk.count++;
+            count.increment();
+        } finally {
+            chunk.localLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Append the value after the last chunk, which is full.
+     * Called with the write lock of the last chunk.
+     *
+     * @param      last   The last chunk
+     * @param      value  The value
+     */
+    private void append(Chunk last, int value) {
+        Chunk newChunk = new Chunk();
+        newChunk.values[0] = value;
+        newChunk.count = 1;
+        newChunk.prev = last;
+        last.next = newChunk;
+        tail = newChunk;
+        count.increment();
+    }
+
+    /**
+     * Inser the value to the first of the Linked List.
+     *
+     * @param      value  The value
+     */
+    public void insertFirst(int value) {
+        insert(value, 0);
+    }
+
+    /**
+     * Insert the value to the last of the linked List.
+     *
+     * @param      value  The value
+     */
+    public void insertLast(int value) {
+        while (true) {
+            Chunk last = tail;
+            last.localLock.writeLock().lock();
+            try {
+                // The tail only moves away under the lock of the last chunk
+                if (last == tail) {
+                    if (last.count == CHUNK_SIZE) {
+                        append(last, value);
+                    } else {
+                        last.values[last.count++] = value;
+                        count.increment();
+                    }
+                    return;
+                }
+            } finally {
+                last.localLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove the value with the given index from the list.
+     *
+     * @param      index  The index of the value to be removed
+     */
+    public void remove(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+
+        Chunk chunk = lockIndex(index, false);
+        try {
+            int i = chunk.cursor;
+            System.arraycopy(chunk.values, i + 1, chunk.values, i, chunk.count - i - 1);
+            chunk.count--;
+            count.decrement();
+            rebalance(chunk);
+        } finally {
+            chunk.localLock.writeLock().unlock();
+        }
+        pruneTail();
+    }
+
+    /**
+     * Remove the first value from the list.
+     */
+    public void removeFirst() {
+        remove(0);
+    }
+
+    /**
+     * Remove the last value from the list.
+     */
+    public void removeLast() {
+        while (true) {
+            Chunk last = tail;
+            last.localLock.writeLock().lock();
+            try {
+                if (last != tail) {
+                    continue;
+                }
+                if (last.count > 0) {
+                    last.count--;
+                    count.decrement();
+                    break;
+                }
+                if (last == head) {
+                    throw new IllegalArgumentException("The Linked List is empty!");
+                }
+            } finally {
+                last.localLock.writeLock().unlock();
+            }
+            pruneTail();
+        }
+        pruneTail();
+    }
+
+    /**
+     * Get the value on the target index of the Linked List.
+     *
+     * @param      index  The index of the value to be returned
+     *
+     * @return     The value on the given index of the Linked List
+     */
+    public int get(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("The index have to be non-negative!");
+        }
+
+        Chunk chunk = head;
+        chunk.localLock.readLock().lock();
+        try {
+            while (index >= chunk.count) {
+                index -= chunk.count;
+                Chunk nextChunk = chunk.next;
+                if (nextChunk == null) {
+                    throw new IllegalArgumentException("The index exceeds the length of the Linked List!");
+                }
+                nextChunk.localLock.readLock().lock();
+                chunk.localLock.readLock().unlock();
+                chunk = nextChunk;
+            }
+            return chunk.values[index];
+        } finally {
+            chunk.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the first value of the Linked List.
+     *
+     * @return     The first value of the Linked List
+     */
+    public int getFirst() {
+        return get(0);
+    }
+
+    /**
+     * Gets the last value of the Linked List.
+     *
+     * @return     The last value of the Linked List
+     */
+    public int getLast() {
+        while (true) {
+            Chunk last = tail;
+            last.localLock.readLock().lock();
+            try {
+                if (last == tail) {
+                    if (last.count > 0) {
+                        return last.values[last.count - 1];
+                    }
+                    if (last == head) {
+                        throw new IllegalArgumentException("The Linked List is empty!");
+                    }
+                }
+            } finally {
+                last.localLock.readLock().unlock();
+            }
+            pruneTail();
+        }
+    }
+
+    /**
+     * Determines if the Linked List is empty.
+     *
+     * @return     True if empty, False otherwise.
+     */
+    public boolean isEmpty() {
+        return count.sum() == 0;
+    }
+
+    /**
+     * Get the size of the Linked List.
+     *
+     * @return     The size of the Linked List.
+     */
+    public int size() {
+        return count.intValue();
+    }
+
+    /**
+     * Run the action on each value in order, a chunk at a time under its read lock.
+     *
+     * @param      action  The action
+     */
+    public void forEach(IntConsumer action) {
+        Chunk chunk = head;
+        chunk.localLock.readLock().lock();
+        try {
+            while (true) {
+                for (int i = 0; i < chunk.count; i++) {
+                    action.accept(chunk.values[i]);
+                }
+                Chunk nextChunk = chunk.next;
+                if (nextChunk == null) {
+                    return;
+                }
+                nextChunk.localLock.readLock().lock();
+                chunk.localLock.readLock().unlock();
+                chunk = nextChunk;
+            }
+        } finally {
+            chunk.localLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Display the Linked List.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        forEach(value -> {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        });
+        return sb.toString();
+    }
+}